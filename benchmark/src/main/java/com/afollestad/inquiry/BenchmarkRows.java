@@ -0,0 +1,177 @@
+package com.afollestad.inquiry;
+
+import android.database.MatrixCursor;
+
+import com.afollestad.inquiry.annotations.Column;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Row classes used by the benchmarks. Classes with public fields get a generated row adapter; the otherwise
+ * identical "Reflected" classes have private fields, so they go through reflection.
+ */
+final class BenchmarkRows {
+
+    private BenchmarkRows() {
+    }
+
+    public static class Small {
+        @Column(primaryKey = true, autoIncrement = true)
+        public long _id;
+        @Column
+        public String name;
+        @Column
+        public int age;
+        @Column
+        public float rank;
+    }
+
+    public static class SmallReflected {
+        @Column(primaryKey = true, autoIncrement = true)
+        private long _id;
+        @Column
+        private String name;
+        @Column
+        private int age;
+        @Column
+        private float rank;
+    }
+
+    public static class Wide {
+        @Column(primaryKey = true, autoIncrement = true)
+        public long _id;
+        @Column
+        public String name;
+        @Column
+        public String email;
+        @Column
+        public String city;
+        @Column
+        public String notes;
+        @Column
+        public int age;
+        @Column
+        public int visits;
+        @Column
+        public int zip;
+        @Column
+        public long created;
+        @Column
+        public long updated;
+        @Column
+        public float rating;
+        @Column
+        public double height;
+        @Column
+        public double balance;
+        @Column
+        public boolean active;
+        @Column
+        public Boolean verified;
+        @Column
+        public Integer referrals;
+    }
+
+    public static class WideReflected {
+        @Column(primaryKey = true, autoIncrement = true)
+        private long _id;
+        @Column
+        private String name;
+        @Column
+        private String email;
+        @Column
+        private String city;
+        @Column
+        private String notes;
+        @Column
+        private int age;
+        @Column
+        private int visits;
+        @Column
+        private int zip;
+        @Column
+        private long created;
+        @Column
+        private long updated;
+        @Column
+        private float rating;
+        @Column
+        private double height;
+        @Column
+        private double balance;
+        @Column
+        private boolean active;
+        @Column
+        private Boolean verified;
+        @Column
+        private Integer referrals;
+    }
+
+    /**
+     * Returns one of the classes above, by column count ("small" or "wide") and conversion path
+     * ("adapter" or "reflection").
+     */
+    static Class<?> rowClass(String columns, String path) {
+        final boolean reflection = path.equals("reflection");
+        if (columns.equals("small"))
+            return reflection ? SmallReflected.class : Small.class;
+        else if (columns.equals("wide"))
+            return reflection ? WideReflected.class : Wide.class;
+        throw new IllegalArgumentException("Unknown column set: " + columns);
+    }
+
+    /**
+     * Builds an in-memory cursor over rowCount rows of the class's columns, filled with varying values.
+     */
+    static MatrixCursor cursor(Class<?> rowClass, int rowCount) {
+        final List<Field> fields = new ArrayList<>();
+        for (Field field : rowClass.getDeclaredFields()) {
+            if (field.getAnnotation(Column.class) != null)
+                fields.add(field);
+        }
+        final String[] names = new String[fields.size()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = fields.get(i).getName();
+        final MatrixCursor cursor = new MatrixCursor(names, rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            final Object[] values = new Object[names.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = valueFor(fields.get(i).getType(), row);
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Builds rowCount instances of the class filled with the same values as {@link #cursor(Class, int)}, in an
+     * array of the row class's type.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T[] rows(Class<T> rowClass, int rowCount) {
+        final MatrixCursor cursor = cursor(rowClass, rowCount);
+        final BindingPlan<T> plan = BindingPlan.get(cursor, rowClass);
+        final T[] rows = (T[]) Array.newInstance(rowClass, rowCount);
+        for (int i = 0; cursor.moveToNext(); i++)
+            rows[i] = plan.read(cursor);
+        return rows;
+    }
+
+    private static Object valueFor(Class<?> type, int row) {
+        if (type == String.class)
+            return "value " + row;
+        else if (type == int.class || type == Integer.class)
+            return row;
+        else if (type == long.class)
+            return (long) row * 1000;
+        else if (type == float.class)
+            return row / 3f;
+        else if (type == double.class)
+            return row / 7d;
+        else if (type == boolean.class || type == Boolean.class)
+            return row % 2;
+        throw new IllegalArgumentException("No benchmark value for " + type.getName());
+    }
+}
@@ -0,0 +1,71 @@
+package com.afollestad.inquiry;
+
+import com.afollestad.inquiry.codecs.ColumnCodec;
+import com.afollestad.inquiry.codecs.CompactCodec;
+import com.afollestad.inquiry.codecs.SerializableCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing and reading back an object column's value, as happens for every row with such a field,
+ * with each of the built-in codecs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"serializable", "compact"})
+    public String codec;
+    @Param({"10", "1000"})
+    public int size;
+
+    private ColumnCodec mCodec;
+    private HashMap<String, ArrayList<Integer>> mValue;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setup() {
+        mCodec = codec.equals("compact") ? new CompactCodec() : new SerializableCodec();
+        mValue = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            final ArrayList<Integer> list = new ArrayList<>();
+            for (int j = 0; j < 4; j++)
+                list.add(i * j);
+            mValue.put("key" + i, list);
+        }
+        mEncoded = mCodec.encode(mValue);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return mCodec.encode(mValue);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return mCodec.decode(mEncoded, HashMap.class);
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        return mCodec.decode(mCodec.encode(mValue), HashMap.class);
+    }
+}
@@ -0,0 +1,86 @@
+package com.afollestad.inquiry;
+
+import android.database.MatrixCursor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting rows between cursors, row objects and ContentValues, across row and column counts and
+ * both the generated adapter and reflection paths. Each operation converts every row, so results are in
+ * batches of rowCount rows per millisecond. Run with -prof gc to see the allocation rate of each path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+    @Param({"100", "10000"})
+    public int rowCount;
+    @Param({"small", "wide"})
+    public String columns;
+    @Param({"adapter", "reflection"})
+    public String path;
+
+    private Class<?> mRowClass;
+    private MatrixCursor mCursor;
+    private Object[] mRows;
+    private Object mReusedRow;
+
+    @Setup
+    public void setup() {
+        mRowClass = BenchmarkRows.rowClass(columns, path);
+        mCursor = BenchmarkRows.cursor(mRowClass, rowCount);
+        mRows = BenchmarkRows.rows(mRowClass, rowCount);
+        mReusedRow = BindingPlan.get(mCursor, mRowClass).newRow();
+    }
+
+    /**
+     * The conversion loop behind Query.all().
+     */
+    @Benchmark
+    public void readRows(Blackhole blackhole) {
+        final BindingPlan<?> plan = BindingPlan.get(mCursor, mRowClass);
+        mCursor.moveToPosition(-1);
+        while (mCursor.moveToNext())
+            blackhole.consume(plan.read(mCursor));
+    }
+
+    /**
+     * The conversion loop behind Query.iterate(true), which fills a single row object.
+     */
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public void readRowsReused(Blackhole blackhole) {
+        final BindingPlan<Object> plan = (BindingPlan<Object>) BindingPlan.get(mCursor, mRowClass);
+        mCursor.moveToPosition(-1);
+        while (mCursor.moveToNext())
+            blackhole.consume(plan.read(mCursor, mReusedRow));
+    }
+
+    @Benchmark
+    public void clsToVals(Blackhole blackhole) {
+        for (Object row : mRows)
+            blackhole.consume(ClassRowConverter.clsToVals(row, null));
+    }
+
+    @Benchmark
+    public void clsArrayToVals(Blackhole blackhole) {
+        blackhole.consume(ClassRowConverter.clsArrayToVals(mRows, null));
+    }
+}
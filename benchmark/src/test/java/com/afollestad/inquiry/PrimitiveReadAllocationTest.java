@@ -0,0 +1,101 @@
+package com.afollestad.inquiry;
+
+import android.database.MatrixCursor;
+
+import com.afollestad.inquiry.annotations.Column;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that reading primitive columns doesn't box their values, through both the generated adapter and
+ * reflection. Rows are read into a reused instance, so any allocation left would come from the column reads.
+ */
+public class PrimitiveReadAllocationTest {
+
+    private static final int ROWS = 10000;
+    private static final int WARMUP_PASSES = 20;
+
+    public static class Adapted {
+        @Column
+        public short level;
+        @Column
+        public int count;
+        @Column
+        public long created;
+        @Column
+        public float rank;
+        @Column
+        public double balance;
+        @Column
+        public boolean active;
+    }
+
+    public static class Reflected {
+        @Column
+        private short level;
+        @Column
+        private int count;
+        @Column
+        private long created;
+        @Column
+        private float rank;
+        @Column
+        private double balance;
+        @Column
+        private boolean active;
+    }
+
+    private static MatrixCursor cursor() {
+        final String[] columns = {"level", "count", "created", "rank", "balance", "active"};
+        final MatrixCursor cursor = new MatrixCursor(columns, ROWS);
+        for (int i = 0; i < ROWS; i++)
+            cursor.addRow(new Object[]{(short) i, i, i * 1000L, i / 3f, i / 7d, i % 2});
+        return cursor;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns the bytes allocated while reading every row of the cursor, after warming up the read path.
+     */
+    private static <T> long bytesPerPass(Class<T> rowClass) {
+        final MatrixCursor cursor = cursor();
+        final BindingPlan<T> plan = BindingPlan.get(cursor, rowClass);
+        final T row = plan.newRow();
+        for (int pass = 0; pass < WARMUP_PASSES; pass++)
+            readAll(cursor, plan, row);
+        final long before = allocatedBytes();
+        readAll(cursor, plan, row);
+        return allocatedBytes() - before;
+    }
+
+    private static <T> void readAll(MatrixCursor cursor, BindingPlan<T> plan, T row) {
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
+            plan.read(cursor, row);
+    }
+
+    @Test
+    public void adapterReadsDontBox() {
+        assertNotNull("No row adapter was generated", ClassRowConverter.getAdapter(Adapted.class));
+        final long bytes = bytesPerPass(Adapted.class);
+        // A single boxed value takes at least 16 bytes, so anything below one byte per row means none were
+        assertTrue(bytes + " bytes were allocated reading " + ROWS + " rows", bytes < ROWS);
+    }
+
+    @Test
+    public void reflectionReadsDontBox() {
+        assertNull(ClassRowConverter.getAdapter(Reflected.class));
+        final long bytes = bytesPerPass(Reflected.class);
+        assertTrue(bytes + " bytes were allocated reading " + ROWS + " rows", bytes < ROWS);
+    }
+}
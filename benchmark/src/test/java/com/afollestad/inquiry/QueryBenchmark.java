@@ -0,0 +1,142 @@
+package com.afollestad.inquiry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures inserts, updates and upserts through Query.run() and selects through Query.all() against a real
+ * SQLite database: Robolectric backs SQLiteDatabase with a native SQLite build. JMH can't run inside
+ * Robolectric's class loader, so each case is a plain timed loop, warmed up and then measured several times,
+ * reporting the median in rows per millisecond. Run with ./gradlew :benchmark:queryBenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class QueryBenchmark {
+
+    private static final int[] ROW_COUNTS = {100, 10000};
+    private static final String[] COLUMNS = {"small", "wide"};
+    private static final String[] PATHS = {"adapter", "reflection"};
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 7;
+
+    private final List<String> mResults = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Inquiry.init(RuntimeEnvironment.application, "benchmark");
+    }
+
+    @After
+    public void tearDown() {
+        Inquiry.deinit();
+    }
+
+    @Test
+    public void benchmark() throws IOException {
+        for (int rowCount : ROW_COUNTS) {
+            for (String columns : COLUMNS) {
+                for (String path : PATHS)
+                    benchmark(BenchmarkRows.rowClass(columns, path), rowCount, columns, path);
+            }
+        }
+        final String resultsPath = System.getProperty("benchmark.results");
+        if (resultsPath != null)
+            writeResults(new File(resultsPath));
+    }
+
+    private <T> void benchmark(final Class<T> rowClass, int rowCount, String columns, String path) {
+        // One table per row class, so switching classes doesn't rebuild the table to a different schema
+        final String table = "bench_" + rowClass.getSimpleName();
+        final T[] rows = BenchmarkRows.rows(rowClass, rowCount);
+        final Inquiry inquiry = Inquiry.get();
+
+        measure("insert", rowCount, columns, path, new Runnable() {
+            @Override
+            public void run() {
+                inquiry.dropTable(table);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                inquiry.insertInto(table, rowClass).values(rows).run();
+            }
+        });
+
+        // The rest work on rows that are already stored, with the IDs they were given
+        inquiry.dropTable(table);
+        inquiry.insertInto(table, rowClass).values(rows).run();
+        final T[] stored = inquiry.selectFrom(table, rowClass).all();
+        measure("updateByPrimaryKey", rowCount, columns, path, null, new Runnable() {
+            @Override
+            public void run() {
+                inquiry.update(table, rowClass).values(stored).byPrimaryKey().run();
+            }
+        });
+        measure("upsert", rowCount, columns, path, null, new Runnable() {
+            @Override
+            public void run() {
+                inquiry.upsert(table, rowClass).values(stored).run();
+            }
+        });
+        measure("all", rowCount, columns, path, null, new Runnable() {
+            @Override
+            public void run() {
+                inquiry.selectFrom(table, rowClass).all();
+            }
+        });
+        inquiry.dropTable(table);
+    }
+
+    /**
+     * Runs setup (untimed, if non-null) and operation for every iteration, recording the median time taken by
+     * the measured iterations' operations.
+     */
+    private void measure(String name, int rowCount, String columns, String path, Runnable setup, Runnable operation) {
+        final long[] nanos = new long[MEASURED_ITERATIONS];
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            if (setup != null)
+                setup.run();
+            final long start = System.nanoTime();
+            operation.run();
+            final long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP_ITERATIONS)
+                nanos[i - WARMUP_ITERATIONS] = elapsed;
+        }
+        Arrays.sort(nanos);
+        final double rowsPerMs = rowCount / (nanos[nanos.length / 2] / 1000000d);
+        System.out.println(String.format(Locale.US, "%-20s %6d rows  %-5s %-10s %12.1f rows/ms",
+                name, rowCount, columns, path, rowsPerMs));
+        mResults.add(String.format(Locale.US, "{\"benchmark\": \"%s\", \"rowCount\": %d, \"columns\": \"%s\", " +
+                "\"path\": \"%s\", \"rowsPerMs\": %.1f}", name, rowCount, columns, path, rowsPerMs));
+    }
+
+    private void writeResults(File file) throws IOException {
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Unable to create " + parent.getAbsolutePath());
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("[\n");
+            for (int i = 0; i < mResults.size(); i++) {
+                writer.write("  " + mResults.get(i));
+                writer.write(i < mResults.size() - 1 ? ",\n" : "\n");
+            }
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
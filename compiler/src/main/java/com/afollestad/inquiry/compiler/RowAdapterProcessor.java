@@ -0,0 +1,399 @@
+package com.afollestad.inquiry.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a RowAdapter for every class with @Column fields, so Inquiry can read and write those rows
+ * without reflection. Classes using column types that need reflection anyway (Bitmap, Serializable objects, etc.),
+ * private fields, or no accessible default constructor are skipped and keep using the reflection path.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class RowAdapterProcessor extends AbstractProcessor {
+
+    private static final String COLUMN_ANNOTATION = "com.afollestad.inquiry.annotations.Column";
+    private static final String ADAPTER_SUFFIX = "$$RowAdapter";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(COLUMN_ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final Map<TypeElement, List<ColumnField>> classes = new LinkedHashMap<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.FIELD) continue;
+                final TypeElement owner = (TypeElement) element.getEnclosingElement();
+                if (!classes.containsKey(owner))
+                    classes.put(owner, new ArrayList<ColumnField>());
+            }
+        }
+        for (TypeElement cls : classes.keySet()) {
+            // Walk the class's own fields so columns keep their declaration order
+            for (VariableElement field : ElementFilter.fieldsIn(cls.getEnclosedElements())) {
+                final AnnotationMirror column = getColumnAnnotation(field);
+                if (column != null)
+                    classes.get(cls).add(new ColumnField(field, column));
+            }
+            final String skipReason = getSkipReason(cls, classes.get(cls));
+            if (skipReason != null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "Not generating a row adapter for " + cls.getQualifiedName() + ", " + skipReason + ".", cls);
+                continue;
+            }
+            try {
+                writeAdapter(cls, classes.get(cls));
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Unable to write row adapter for " + cls.getQualifiedName() + ": " + e.getMessage(), cls);
+            }
+        }
+        return false;
+    }
+
+    private static AnnotationMirror getColumnAnnotation(Element element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            final TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(COLUMN_ANNOTATION))
+                return mirror;
+        }
+        return null;
+    }
+
+    private static String getSkipReason(TypeElement cls, List<ColumnField> fields) {
+        if (cls.getModifiers().contains(Modifier.PRIVATE) || cls.getModifiers().contains(Modifier.ABSTRACT))
+            return "it is private or abstract";
+        if (cls.getNestingKind() == NestingKind.MEMBER && !cls.getModifiers().contains(Modifier.STATIC))
+            return "it is an inner (non-static) class";
+        if (cls.getNestingKind() == NestingKind.LOCAL || cls.getNestingKind() == NestingKind.ANONYMOUS)
+            return "it is a local or anonymous class";
+        boolean hasDefaultConstructor = false;
+        for (ExecutableElement ctor : ElementFilter.constructorsIn(cls.getEnclosedElements())) {
+            if (ctor.getParameters().isEmpty() && !ctor.getModifiers().contains(Modifier.PRIVATE)) {
+                hasDefaultConstructor = true;
+                break;
+            }
+        }
+        if (!hasDefaultConstructor)
+            return "it has no accessible default constructor";
+        for (ColumnField field : fields) {
+            if (field.element.getModifiers().contains(Modifier.PRIVATE))
+                return "field " + field.name + " is private";
+            if (field.element.getModifiers().contains(Modifier.FINAL))
+                return "field " + field.name + " is final";
+            if (field.kind == null)
+                return "field " + field.name + " has a type that requires reflection";
+        }
+        return null;
+    }
+
+    private void writeAdapter(TypeElement cls, List<ColumnField> fields) throws IOException {
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(cls);
+        final String packageName = pkg.isUnnamed() ? null : pkg.getQualifiedName().toString();
+        final String rowType = cls.getQualifiedName().toString();
+        final String binaryName = processingEnv.getElementUtils().getBinaryName(cls).toString();
+        final String adapterName = (packageName != null ? binaryName.substring(packageName.length() + 1) : binaryName) + ADAPTER_SUFFIX;
+
+        final StringBuilder sb = new StringBuilder();
+        if (packageName != null)
+            sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("// Generated by inquiry-compiler, do not edit.\n");
+        sb.append("public final class ").append(adapterName)
+                .append(" implements com.afollestad.inquiry.RowAdapter<").append(rowType).append("> {\n\n");
+
+        sb.append("    private static final String[] COLUMNS = new String[] {");
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append('"').append(fields.get(i).name).append('"');
+        }
+        sb.append("};\n\n");
+
+        sb.append("    private static final String[] INSERT_COLUMNS = new String[] {");
+        boolean first = true;
+        for (ColumnField field : fields) {
+            if (field.autoIncrement) continue;
+            if (!first) sb.append(", ");
+            sb.append('"').append(field.name).append('"');
+            first = false;
+        }
+        sb.append("};\n\n");
+
+        sb.append("    @Override\n    public String schema() {\n        return \"");
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(fields.get(i).schema());
+        }
+        sb.append("\";\n    }\n\n");
+
+        sb.append("    @Override\n    public String[] columns() {\n        return COLUMNS;\n    }\n\n");
+
+        sb.append("    @Override\n    public ").append(rowType).append(" newRow() {\n        return new ")
+                .append(rowType).append("();\n    }\n\n");
+
+        sb.append("    @Override\n    public void read(android.database.Cursor cursor, int[] columnIndices, ")
+                .append(rowType).append(" row) {\n        int index;\n");
+        for (int i = 0; i < fields.size(); i++)
+            fields.get(i).appendRead(sb, i);
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n    public void write(").append(rowType)
+                .append(" row, android.content.ContentValues values, boolean[] include) {\n");
+        for (int i = 0; i < fields.size(); i++)
+            fields.get(i).appendWrite(sb, i);
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n    public String[] insertColumns() {\n        return INSERT_COLUMNS;\n    }\n\n");
+
+        sb.append("    @Override\n    public void bind(").append(rowType)
+                .append(" row, android.database.sqlite.SQLiteStatement statement) {\n");
+        int bindIndex = 1;
+        for (ColumnField field : fields) {
+            if (field.autoIncrement) continue;
+            field.appendBind(sb, bindIndex++);
+        }
+        sb.append("    }\n}\n");
+
+        final JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                (packageName != null ? packageName + "." : "") + adapterName, cls);
+        final Writer writer = file.openWriter();
+        try {
+            writer.write(sb.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private enum Kind {
+        SHORT("BLOB", "getShort(index)"),
+        INT("INTEGER", "getInt(index)"),
+        LONG("INTEGER", "getLong(index)"),
+        FLOAT("REAL", "getFloat(index)"),
+        DOUBLE("REAL", "getDouble(index)"),
+        BOOLEAN("INTEGER", "getInt(index) == 1"),
+        CHAR("BLOB", "getString(index)"),
+        STRING("TEXT", "getString(index)"),
+        CHAR_SEQUENCE("BLOB", "getString(index)"),
+        BYTES("BLOB", "getBlob(index)");
+
+        final String sqlType;
+        final String getter;
+
+        Kind(String sqlType, String getter) {
+            this.sqlType = sqlType;
+            this.getter = getter;
+        }
+    }
+
+    private static final class ColumnField {
+
+        final VariableElement element;
+        final String name;
+        final Kind kind;
+        final boolean primitive;
+        final boolean primaryKey;
+        final boolean autoIncrement;
+        final boolean notNull;
+
+        ColumnField(VariableElement element, AnnotationMirror column) {
+            this.element = element;
+            this.name = element.getSimpleName().toString();
+            final TypeMirror type = element.asType();
+            this.primitive = type.getKind().isPrimitive();
+            this.kind = kindOf(type);
+            boolean primaryKey = false, autoIncrement = false, notNull = false;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : column.getElementValues().entrySet()) {
+                final String key = entry.getKey().getSimpleName().toString();
+                final boolean value = Boolean.TRUE.equals(entry.getValue().getValue());
+                switch (key) {
+                    case "primaryKey":
+                        primaryKey = value;
+                        break;
+                    case "autoIncrement":
+                        autoIncrement = value;
+                        break;
+                    case "notNull":
+                        notNull = value;
+                        break;
+                }
+            }
+            this.primaryKey = primaryKey;
+            this.autoIncrement = autoIncrement;
+            this.notNull = notNull;
+        }
+
+        private static Kind kindOf(TypeMirror type) {
+            switch (type.getKind()) {
+                case SHORT:
+                    return Kind.SHORT;
+                case INT:
+                    return Kind.INT;
+                case LONG:
+                    return Kind.LONG;
+                case FLOAT:
+                    return Kind.FLOAT;
+                case DOUBLE:
+                    return Kind.DOUBLE;
+                case BOOLEAN:
+                    return Kind.BOOLEAN;
+                case CHAR:
+                    return Kind.CHAR;
+                case ARRAY:
+                    return type.toString().equals("byte[]") ? Kind.BYTES : null;
+                case DECLARED:
+                    switch (type.toString()) {
+                        case "java.lang.Short":
+                            return Kind.SHORT;
+                        case "java.lang.Integer":
+                            return Kind.INT;
+                        case "java.lang.Long":
+                            return Kind.LONG;
+                        case "java.lang.Float":
+                            return Kind.FLOAT;
+                        case "java.lang.Double":
+                            return Kind.DOUBLE;
+                        case "java.lang.Boolean":
+                            return Kind.BOOLEAN;
+                        case "java.lang.Character":
+                            return Kind.CHAR;
+                        case "java.lang.String":
+                            return Kind.STRING;
+                        case "java.lang.CharSequence":
+                            return Kind.CHAR_SEQUENCE;
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Matches the column definition ClassRowConverter derives through reflection, so tables created
+         * either way are identical.
+         */
+        String schema() {
+            String schema = name + " " + kind.sqlType;
+            if (primaryKey)
+                schema += " PRIMARY KEY";
+            if (autoIncrement)
+                schema += " AUTOINCREMENT";
+            if (notNull)
+                schema += " NOT NULL";
+            return schema;
+        }
+
+        void appendRead(StringBuilder sb, int position) {
+            // Every column in the cursor is overwritten, even when null, so rows can be reused
+            sb.append("        index = columnIndices[").append(position).append("];\n");
+            if (kind == Kind.CHAR) {
+                sb.append("        if (index != -1) {\n");
+                sb.append("            String text = cursor.isNull(index) ? null : cursor.getString(index);\n");
+                sb.append("            row.").append(name).append(" = text != null && text.length() > 0 ? ");
+                if (primitive)
+                    sb.append("text.charAt(0) : '\\0';\n");
+                else
+                    sb.append("(java.lang.Character) text.charAt(0) : null;\n");
+                sb.append("        }\n");
+            } else if (primitive) {
+                sb.append("        if (index != -1) row.").append(name).append(" = cursor.isNull(index) ? ")
+                        .append(kind == Kind.BOOLEAN ? "false" : "0").append(" : ").append("cursor.").append(kind.getter).append(";\n");
+            } else {
+                sb.append("        if (index != -1) row.").append(name).append(" = cursor.isNull(index) ? null : ");
+                // Keep the conditional's type boxed so a null column doesn't unbox
+                if (kind == Kind.STRING || kind == Kind.CHAR_SEQUENCE || kind == Kind.BYTES)
+                    sb.append("cursor.").append(kind.getter);
+                else
+                    sb.append("(").append(element.asType().toString()).append(") (cursor.").append(kind.getter).append(")");
+                sb.append(";\n");
+            }
+        }
+
+        void appendWrite(StringBuilder sb, int position) {
+            if (autoIncrement) return;
+            if (primitive)
+                sb.append("        if (include == null || include[").append(position).append("])");
+            else
+                sb.append("        if ((include == null || include[").append(position).append("]) && row.")
+                        .append(name).append(" != null)");
+            sb.append(" values.put(\"").append(name).append("\", ");
+            switch (kind) {
+                case BOOLEAN:
+                    sb.append("row.").append(name).append(" ? 1 : 0");
+                    break;
+                case CHAR:
+                case CHAR_SEQUENCE:
+                    sb.append("String.valueOf(row.").append(name).append(")");
+                    break;
+                default:
+                    sb.append("row.").append(name);
+                    break;
+            }
+            sb.append(");\n");
+        }
+
+        void appendBind(StringBuilder sb, int bindIndex) {
+            final String value = "row." + name;
+            final String bind;
+            switch (kind) {
+                case SHORT:
+                case INT:
+                case LONG:
+                    bind = "bindLong(" + bindIndex + ", " + value + ")";
+                    break;
+                case FLOAT:
+                case DOUBLE:
+                    bind = "bindDouble(" + bindIndex + ", " + value + ")";
+                    break;
+                case BOOLEAN:
+                    bind = "bindLong(" + bindIndex + ", " + value + " ? 1 : 0)";
+                    break;
+                case BYTES:
+                    bind = "bindBlob(" + bindIndex + ", " + value + ")";
+                    break;
+                case STRING:
+                    bind = "bindString(" + bindIndex + ", " + value + ")";
+                    break;
+                default:
+                    bind = "bindString(" + bindIndex + ", String.valueOf(" + value + "))";
+                    break;
+            }
+            if (primitive) {
+                sb.append("        statement.").append(bind).append(";\n");
+            } else {
+                sb.append("        if (").append(value).append(" == null) statement.bindNull(").append(bindIndex)
+                        .append(");\n        else statement.").append(bind).append(";\n");
+            }
+        }
+    }
+}
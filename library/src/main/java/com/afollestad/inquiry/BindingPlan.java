@@ -0,0 +1,354 @@
+package com.afollestad.inquiry;
+
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import com.afollestad.inquiry.annotations.BitmapColumn;
+import com.afollestad.inquiry.codecs.ColumnCodec;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything needed to convert rows of a cursor into instances of a row class. Fields, the way each
+ * column is read, and the default constructor are resolved once per (row class, column layout) and
+ * cached, so reflection lookups aren't repeated for every row. Row classes with a generated {@link RowAdapter}
+ * skip reflection entirely.
+ */
+final class BindingPlan<T> {
+
+    private static final int CACHE_SIZE = 64;
+
+    static final int ACCESSOR_BYTES = 1;
+    static final int ACCESSOR_BITMAP = 2;
+    static final int ACCESSOR_OBJECT = 3;
+    static final int ACCESSOR_FLOAT = 4;
+    static final int ACCESSOR_DOUBLE = 5;
+    static final int ACCESSOR_SHORT = 6;
+    static final int ACCESSOR_INT = 7;
+    static final int ACCESSOR_LONG = 8;
+    static final int ACCESSOR_BOOLEAN = 9;
+    static final int ACCESSOR_STRING = 10;
+    static final int ACCESSOR_CHARS = 11;
+    static final int ACCESSOR_CHAR = 12;
+
+    private static final LruCache<Key, BindingPlan<?>> sCache = new LruCache<>(CACHE_SIZE);
+
+    private final Class<T> mRowClass;
+    @Nullable
+    private final RowAdapter<T> mAdapter;
+    @Nullable
+    private final int[] mColumnIndices;
+    @Nullable
+    private final Constructor<?> mConstructor;
+    @Nullable
+    private final Field[] mFields;
+    @Nullable
+    private final int[] mAccessors;
+    @Nullable
+    private final ColumnCodec[] mCodecs;
+    @Nullable
+    private final boolean[] mPrimitive;
+    @Nullable
+    private final BitmapColumn[] mBitmapColumns;
+    // BLOB fields an adapter reads, so their sizes can still be added to query metrics
+    @Nullable
+    private final Field[] mAdapterBlobFields;
+
+    private BindingPlan(Class<T> rowClass, String[] columnNames) {
+        mRowClass = rowClass;
+        mAdapter = ClassRowConverter.getAdapter(rowClass);
+        if (mAdapter != null) {
+            mConstructor = null;
+            mFields = null;
+            mAccessors = null;
+            mCodecs = null;
+            mPrimitive = null;
+            mBitmapColumns = null;
+            mColumnIndices = adapterColumnIndices(mAdapter.columns(), columnNames);
+            mAdapterBlobFields = adapterBlobFields(columnNames);
+            return;
+        }
+        mColumnIndices = null;
+        mAdapterBlobFields = null;
+        mConstructor = Utils.getDefaultConstructor(rowClass);
+        mFields = new Field[columnNames.length];
+        mAccessors = new int[columnNames.length];
+        mCodecs = new ColumnCodec[columnNames.length];
+        mPrimitive = new boolean[columnNames.length];
+        mBitmapColumns = new BitmapColumn[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            try {
+                mFields[i] = rowClass.getDeclaredField(columnNames[i]);
+            } catch (NoSuchFieldException e) {
+                throw missingField(columnNames[i]);
+            }
+            mFields[i].setAccessible(true);
+            mAccessors[i] = accessorFor(mFields[i].getType());
+            mPrimitive[i] = mFields[i].getType().isPrimitive();
+            if (mAccessors[i] == ACCESSOR_OBJECT)
+                mCodecs[i] = ClassRowConverter.getCodec(mFields[i]);
+            else if (mAccessors[i] == ACCESSOR_BITMAP)
+                mBitmapColumns[i] = mFields[i].getAnnotation(BitmapColumn.class);
+        }
+    }
+
+    private int[] adapterColumnIndices(String[] adapterColumns, String[] columnNames) {
+        final int[] indices = new int[adapterColumns.length];
+        Arrays.fill(indices, -1);
+        for (int i = 0; i < columnNames.length; i++) {
+            boolean found = false;
+            for (int j = 0; j < adapterColumns.length; j++) {
+                if (adapterColumns[j].equals(columnNames[i])) {
+                    indices[j] = i;
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) throw missingField(columnNames[i]);
+        }
+        return indices;
+    }
+
+    private Field[] adapterBlobFields(String[] columnNames) {
+        final List<Field> fields = new ArrayList<>();
+        for (String columnName : columnNames) {
+            final Field field;
+            try {
+                field = mRowClass.getDeclaredField(columnName);
+            } catch (NoSuchFieldException e) {
+                throw missingField(columnName);
+            }
+            if (field.getType() == byte[].class) {
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields.toArray(new Field[fields.size()]);
+    }
+
+    private IllegalStateException missingField(String columnName) {
+        return new IllegalStateException(String.format("No field found in %s for column %s",
+                mRowClass.getName(), columnName));
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public static <T> BindingPlan<T> get(@NonNull Cursor cursor, @NonNull Class<T> rowClass) {
+        return get(cursor, rowClass, cursor.getColumnCount());
+    }
+
+    /**
+     * Returns a plan which only reads the cursor's first columns, the ones after them are selected for the
+     * query's own use, e.g. the position a page ends at.
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public static <T> BindingPlan<T> get(@NonNull Cursor cursor, @NonNull Class<T> rowClass, int columnCount) {
+        final String[] columns = cursor.getColumnNames();
+        final Key key = new Key(rowClass, columnCount < columns.length ? Arrays.copyOf(columns, columnCount) : columns);
+        BindingPlan<T> plan = (BindingPlan<T>) sCache.get(key);
+        if (plan == null) {
+            plan = new BindingPlan<>(rowClass, key.columns);
+            sCache.put(key, plan);
+        }
+        return plan;
+    }
+
+    static int accessorFor(Class<?> fieldType) {
+        if (fieldType == byte[].class)
+            return ACCESSOR_BYTES;
+        else if (fieldType == Bitmap.class)
+            return ACCESSOR_BITMAP;
+        else if (fieldType == float.class || fieldType == Float.class)
+            return ACCESSOR_FLOAT;
+        else if (fieldType == double.class || fieldType == Double.class)
+            return ACCESSOR_DOUBLE;
+        else if (fieldType == short.class || fieldType == Short.class)
+            return ACCESSOR_SHORT;
+        else if (fieldType == int.class || fieldType == Integer.class)
+            return ACCESSOR_INT;
+        else if (fieldType == long.class || fieldType == Long.class)
+            return ACCESSOR_LONG;
+        else if (fieldType == boolean.class || fieldType == Boolean.class)
+            return ACCESSOR_BOOLEAN;
+        else if (fieldType == String.class || fieldType == CharSequence.class)
+            return ACCESSOR_STRING;
+        else if (fieldType == char[].class || fieldType == Character[].class)
+            return ACCESSOR_CHARS;
+        else if (fieldType == char.class || fieldType == Character.class)
+            return ACCESSOR_CHAR;
+        return ACCESSOR_OBJECT;
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public T newRow() {
+        if (mAdapter != null)
+            return mAdapter.newRow();
+        try {
+            return (T) mConstructor.newInstance();
+        } catch (Throwable t) {
+            throw new RuntimeException("Failed to instantiate " + mRowClass.getName() + ": " + t.getLocalizedMessage());
+        }
+    }
+
+    @NonNull
+    public T read(@NonNull Cursor cursor) {
+        return read(cursor, newRow(), null);
+    }
+
+    @NonNull
+    public T read(@NonNull Cursor cursor, @NonNull T row) {
+        return read(cursor, row, null);
+    }
+
+    /**
+     * Fills an existing row from the cursor's current position, overwriting every column the cursor contains.
+     *
+     * @param metrics If non-null, the size of the BLOBs read is added to it.
+     */
+    @NonNull
+    public T read(@NonNull Cursor cursor, @NonNull T row, @Nullable QueryMetrics metrics) {
+        if (mAdapter != null) {
+            mAdapter.read(cursor, mColumnIndices, row);
+            if (metrics != null)
+                countAdapterBlobs(row, metrics);
+            return row;
+        }
+        try {
+            for (int columnIndex = 0; columnIndex < mFields.length; columnIndex++)
+                loadColumn(cursor, row, columnIndex, metrics);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        return row;
+    }
+
+    private void loadColumn(Cursor cursor, T row, int columnIndex, @Nullable QueryMetrics metrics) throws IllegalAccessException {
+        final Field field = mFields[columnIndex];
+        final boolean primitive = mPrimitive[columnIndex];
+        if (cursor.isNull(columnIndex)) {
+            // Primitive fields can't hold null, they're reset to their default value instead
+            if (primitive)
+                setPrimitiveDefault(field, row);
+            else
+                field.set(row, null);
+            return;
+        }
+        // Primitive fields use the typed setters, which don't box the value
+        switch (mAccessors[columnIndex]) {
+            case ACCESSOR_BYTES:
+                field.set(row, readBlob(cursor, columnIndex, metrics));
+                break;
+            case ACCESSOR_BITMAP:
+                field.set(row, BitmapStorage.decode(readBlob(cursor, columnIndex, metrics), mBitmapColumns[columnIndex]));
+                break;
+            case ACCESSOR_OBJECT:
+                field.set(row, mCodecs[columnIndex].decode(readBlob(cursor, columnIndex, metrics), field.getType()));
+                break;
+            case ACCESSOR_FLOAT:
+                if (primitive) field.setFloat(row, cursor.getFloat(columnIndex));
+                else field.set(row, cursor.getFloat(columnIndex));
+                break;
+            case ACCESSOR_DOUBLE:
+                if (primitive) field.setDouble(row, cursor.getDouble(columnIndex));
+                else field.set(row, cursor.getDouble(columnIndex));
+                break;
+            case ACCESSOR_SHORT:
+                if (primitive) field.setShort(row, cursor.getShort(columnIndex));
+                else field.set(row, cursor.getShort(columnIndex));
+                break;
+            case ACCESSOR_INT:
+                if (primitive) field.setInt(row, cursor.getInt(columnIndex));
+                else field.set(row, cursor.getInt(columnIndex));
+                break;
+            case ACCESSOR_LONG:
+                if (primitive) field.setLong(row, cursor.getLong(columnIndex));
+                else field.set(row, cursor.getLong(columnIndex));
+                break;
+            case ACCESSOR_BOOLEAN:
+                if (primitive) field.setBoolean(row, cursor.getInt(columnIndex) == 1);
+                else field.set(row, cursor.getInt(columnIndex) == 1);
+                break;
+            case ACCESSOR_STRING:
+                field.set(row, cursor.getString(columnIndex));
+                break;
+            case ACCESSOR_CHARS: {
+                final String text = cursor.getString(columnIndex);
+                field.set(row, text.length() > 0 ? text.toCharArray() : null);
+                break;
+            }
+            case ACCESSOR_CHAR: {
+                final String text = cursor.getString(columnIndex);
+                if (primitive)
+                    field.setChar(row, text.length() > 0 ? text.charAt(0) : '\0');
+                else
+                    field.set(row, text.length() > 0 ? text.charAt(0) : null);
+                break;
+            }
+        }
+    }
+
+    private void countAdapterBlobs(T row, QueryMetrics metrics) {
+        try {
+            for (Field field : mAdapterBlobFields) {
+                final byte[] blob = (byte[]) field.get(row);
+                if (blob != null)
+                    metrics.blobBytes += blob.length;
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] readBlob(Cursor cursor, int columnIndex, @Nullable QueryMetrics metrics) {
+        final byte[] blob = cursor.getBlob(columnIndex);
+        if (metrics != null)
+            metrics.blobBytes += blob.length;
+        return blob;
+    }
+
+    private static void setPrimitiveDefault(Field field, Object row) throws IllegalAccessException {
+        final Class<?> type = field.getType();
+        if (type == boolean.class)
+            field.setBoolean(row, false);
+        else if (type == char.class)
+            field.setChar(row, '\0');
+        else
+            // A byte widens to every other numeric primitive type
+            field.setByte(row, (byte) 0);
+    }
+
+    private static final class Key {
+
+        final Class<?> rowClass;
+        final String[] columns;
+        private final int mHash;
+
+        Key(Class<?> rowClass, String[] columns) {
+            this.rowClass = rowClass;
+            this.columns = columns;
+            mHash = 31 * rowClass.hashCode() + Arrays.hashCode(columns);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return rowClass == other.rowClass && Arrays.equals(columns, other.columns);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+}
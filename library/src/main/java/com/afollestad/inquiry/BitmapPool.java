@@ -0,0 +1,105 @@
+package com.afollestad.inquiry;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Bitmaps the app no longer displays, kept so images decoded from Bitmap columns can reuse their memory
+ * (BitmapFactory.Options.inBitmap) rather than allocating a new bitmap for every row, e.g. while a list scrolls.
+ * While a pool is set with {@link Inquiry#setBitmapPool(BitmapPool)}, Bitmaps loaded by Inquiry are mutable, so
+ * they can be put back into the pool once they're off screen. Don't use a bitmap after putting it in the pool.
+ * <p/>
+ * A {@link QueryCache} or {@link IdentityMap} hands the same Bitmap instances to every query that returns the row,
+ * so a bitmap put back into the pool could be decoded over while other rows still reference it. The pool isn't
+ * used while either of them is set on Inquiry.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class BitmapPool {
+
+    private final long mMaxBytes;
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private long mBytes;
+
+    /**
+     * @param maxBytes How much bitmap memory is kept; the oldest bitmaps are dropped beyond that.
+     */
+    public BitmapPool(long maxBytes) {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("The pool must hold at least one byte.");
+        mMaxBytes = maxBytes;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int sizeOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            return bitmap.getAllocationByteCount();
+        return bitmap.getByteCount();
+    }
+
+    private static int bytesPerPixel(@Nullable Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8)
+            return 1;
+        else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444)
+            return 2;
+        return 4;
+    }
+
+    /**
+     * Offers a bitmap for reuse. Immutable and recycled bitmaps can't be reused and are ignored.
+     */
+    public synchronized void put(@NonNull Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled()) return;
+        final int size = sizeOf(bitmap);
+        if (size > mMaxBytes) return;
+        mBitmaps.addFirst(bitmap);
+        mBytes += size;
+        while (mBytes > mMaxBytes)
+            mBytes -= sizeOf(mBitmaps.removeLast());
+    }
+
+    /**
+     * Removes and returns a bitmap which an image of the given size can be decoded into, or null if there's none.
+     * Before KitKat, reused bitmaps must match the image's size exactly and the image can't be subsampled.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @Nullable
+    synchronized Bitmap take(int width, int height, int sampleSize, @Nullable Bitmap.Config config) {
+        final boolean anySize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        if (!anySize && sampleSize != 1) return null;
+        final int decodedWidth = (width + sampleSize - 1) / sampleSize;
+        final int decodedHeight = (height + sampleSize - 1) / sampleSize;
+        final long needed = (long) decodedWidth * decodedHeight * bytesPerPixel(config);
+        final Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            final Bitmap candidate = iterator.next();
+            final boolean fits = anySize ? candidate.getAllocationByteCount() >= needed :
+                    candidate.getWidth() == width && candidate.getHeight() == height &&
+                            bytesPerPixel(candidate.getConfig()) == bytesPerPixel(config);
+            if (fits) {
+                iterator.remove();
+                mBytes -= sizeOf(candidate);
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * The number of bytes of bitmap memory currently held for reuse.
+     */
+    public synchronized long getSize() {
+        return mBytes;
+    }
+}
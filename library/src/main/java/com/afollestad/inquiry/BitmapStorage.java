@@ -0,0 +1,308 @@
+package com.afollestad.inquiry;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.afollestad.inquiry.annotations.BitmapColumn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Encodes and decodes Bitmap columns as configured by {@link BitmapColumn}. Images larger than a field's file
+ * threshold are written to files named after a hash of their contents (so identical images share a file), and
+ * the row holds a short reference to the file instead of the image.
+ */
+final class BitmapStorage {
+
+    private static final String TAG = "Inquiry";
+    private static final String DIRECTORY = "inquiry_bitmaps";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] FILE_PREFIX = "inquiry-file:".getBytes(UTF_8);
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Files this recent may belong to rows which are still being written, pruning leaves them alone
+    private static final long PRUNE_GRACE_MILLIS = 60 * 60 * 1000;
+
+    private BitmapStorage() {
+    }
+
+    @NonNull
+    private static File getDirectory() {
+        final Inquiry inquiry = Inquiry.peek();
+        if (inquiry == null || inquiry.mContext == null)
+            throw new IllegalStateException("Inquiry must be initialized to store Bitmaps in files.");
+        return new File(inquiry.mContext.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * @param offRow Whether large images may be stored in a file. Only this app can read its files, so values
+     *               sent to content providers always hold the image itself.
+     */
+    @NonNull
+    static byte[] encode(@NonNull Bitmap bitmap, @Nullable BitmapColumn options, boolean offRow) {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final byte[] data;
+        try {
+            if (options != null)
+                bitmap.compress(options.format(), options.quality(), stream);
+            else
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+            data = stream.toByteArray();
+        } finally {
+            Utils.closeQuietely(stream);
+        }
+        if (!offRow || options == null || options.fileThreshold() <= 0 || data.length <= options.fileThreshold())
+            return data;
+        return writeFile(data);
+    }
+
+    private static byte[] writeFile(byte[] data) {
+        final File directory = getDirectory();
+        final String name = hash(data);
+        final File file = new File(directory, name);
+        // A reused file is touched so pruning sees it as recent until the row referencing it is written
+        if (!file.exists() || file.length() != data.length || !file.setLastModified(System.currentTimeMillis())) {
+            if (!directory.exists() && !directory.mkdirs())
+                throw new IllegalStateException("Unable to create " + directory.getAbsolutePath());
+            // Written under a temporary name first, so a reader never maps a partially written file. Each writer
+            // gets its own, two threads storing the same image mustn't write into one temporary file.
+            final File temp;
+            FileOutputStream os = null;
+            try {
+                temp = File.createTempFile(name, TEMP_SUFFIX, directory);
+                os = new FileOutputStream(temp);
+                os.write(data);
+                os.getFD().sync();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to write " + file.getAbsolutePath() + ": " + e.getMessage(), e);
+            } finally {
+                Utils.closeQuietely(os);
+            }
+            if (!temp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                throw new IllegalStateException("Unable to write " + file.getAbsolutePath());
+            }
+        }
+        final byte[] name8 = name.getBytes(UTF_8);
+        final byte[] reference = new byte[FILE_PREFIX.length + name8.length];
+        System.arraycopy(FILE_PREFIX, 0, reference, 0, FILE_PREFIX.length);
+        System.arraycopy(name8, 0, reference, FILE_PREFIX.length, name8.length);
+        return reference;
+    }
+
+    private static String hash(byte[] data) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        final byte[] hash = digest.digest(data);
+        final StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    @Nullable
+    private static String getFileName(byte[] data) {
+        if (data.length <= FILE_PREFIX.length) return null;
+        for (int i = 0; i < FILE_PREFIX.length; i++) {
+            if (data[i] != FILE_PREFIX[i]) return null;
+        }
+        return new String(data, FILE_PREFIX.length, data.length - FILE_PREFIX.length, UTF_8);
+    }
+
+    /**
+     * Where an image is decoded from, so it can be read twice: once for its dimensions and once for its pixels.
+     */
+    private interface Source {
+
+        @Nullable
+        Bitmap decode(@NonNull BitmapFactory.Options options);
+    }
+
+    @Nullable
+    static Bitmap decode(@NonNull final byte[] data, @Nullable BitmapColumn column) {
+        final String fileName = getFileName(data);
+        if (fileName == null) {
+            return decode(new Source() {
+                @Override
+                public Bitmap decode(@NonNull BitmapFactory.Options options) {
+                    return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                }
+            }, column);
+        }
+
+        final File file = new File(getDirectory(), fileName);
+        final ByteBuffer mapped;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            // The mapping stays valid after the file is closed
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + file.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        } finally {
+            Utils.closeQuietely(raf);
+        }
+        return decode(new Source() {
+            @Override
+            public Bitmap decode(@NonNull BitmapFactory.Options options) {
+                return BitmapFactory.decodeStream(new BufferInputStream(mapped.duplicate()), null, options);
+            }
+        }, column);
+    }
+
+    @Nullable
+    private static Bitmap decode(@NonNull Source source, @Nullable BitmapColumn column) {
+        final Inquiry inquiry = Inquiry.peek();
+        // Cached and identity mapped rows share their Bitmaps, one of them going back to the pool would let a
+        // later decode overwrite pixels other rows still show
+        final BitmapPool pool = inquiry != null && inquiry.getQueryCache() == null && inquiry.getIdentityMap() == null ?
+                inquiry.getBitmapPool() : null;
+        final int targetWidth = column != null ? column.targetWidth() : 0;
+        final int targetHeight = column != null ? column.targetHeight() : 0;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        if (pool == null && targetWidth <= 0 && targetHeight <= 0)
+            return source.decode(options);
+
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        options.inJustDecodeBounds = false;
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+        options.inSampleSize = 1;
+        while ((targetWidth > 0 || targetHeight > 0) &&
+                options.outWidth / (options.inSampleSize * 2) >= targetWidth &&
+                options.outHeight / (options.inSampleSize * 2) >= targetHeight)
+            options.inSampleSize *= 2;
+        if (pool == null)
+            return source.decode(options);
+
+        options.inMutable = true;
+        options.inBitmap = pool.take(options.outWidth, options.outHeight, options.inSampleSize, options.inPreferredConfig);
+        if (options.inBitmap == null)
+            return source.decode(options);
+        try {
+            return source.decode(options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap turned out not to fit, e.g. a different config
+            options.inBitmap = null;
+            return source.decode(options);
+        }
+    }
+
+    /**
+     * Deletes image files which none of the given tables reference anymore, and temporary files left behind by
+     * writes which didn't finish.
+     *
+     * @return The number of files deleted.
+     */
+    static int prune(@NonNull SQLiteDatabase db, @NonNull String[] tables) {
+        final File[] files = getDirectory().listFiles();
+        if (files == null || files.length == 0) return 0;
+        final StringBuilder prefix = new StringBuilder("X'");
+        for (byte b : FILE_PREFIX)
+            prefix.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        prefix.append('\'');
+
+        final Set<String> referenced = new HashSet<>();
+        for (String table : tables) {
+            for (String column : getBlobColumns(db, table)) {
+                final Cursor cursor = db.rawQuery("SELECT " + column + " FROM " + table + " WHERE substr(" +
+                        column + ", 1, " + FILE_PREFIX.length + ") = " + prefix, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        final String name = getFileName(cursor.getBlob(0));
+                        if (name != null) referenced.add(name);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+
+        final long cutoff = System.currentTimeMillis() - PRUNE_GRACE_MILLIS;
+        int deleted = 0;
+        for (File file : files) {
+            // Temporary files are never referenced, they're only kept while a write could still be using them
+            if (file.lastModified() > cutoff ||
+                    (!file.getName().endsWith(TEMP_SUFFIX) && referenced.contains(file.getName()))) continue;
+            if (file.delete()) deleted++;
+        }
+        return deleted;
+    }
+
+    private static Set<String> getBlobColumns(SQLiteDatabase db, String table) {
+        final Set<String> columns = new HashSet<>();
+        final Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            final int name = cursor.getColumnIndexOrThrow("name");
+            final int type = cursor.getColumnIndexOrThrow("type");
+            while (cursor.moveToNext()) {
+                if ("BLOB".equalsIgnoreCase(cursor.getString(type)))
+                    columns.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Reads a (memory-mapped) buffer without copying it into an array first.
+     */
+    private static final class BufferInputStream extends InputStream {
+
+        private final ByteBuffer mBuffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!mBuffer.hasRemaining()) return -1;
+            len = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+        @Override
+        public long skip(long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + skipped);
+            return skipped;
+        }
+    }
+}
@@ -2,68 +2,174 @@ package com.afollestad.inquiry;
 
 import android.content.ContentValues;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.afollestad.inquiry.annotations.Column;
+import com.afollestad.inquiry.annotations.Index;
+import com.afollestad.inquiry.annotations.Indices;
+import com.afollestad.inquiry.codecs.ColumnCodec;
+import com.afollestad.inquiry.codecs.SerializableCodec;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Aidan Follestad (afollestad)
  */
 class ClassRowConverter {
 
-    private static byte[] serializeObject(Object obj) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutput out = null;
-        try {
-            out = new ObjectOutputStream(bos);
-            out.writeObject(obj);
-            return bos.toByteArray();
-        } catch (IOException e) {
-            throw new IllegalStateException("Unable to serialize object of type " + obj.getClass().getName(), e);
-        } finally {
+    private static final String ADAPTER_SUFFIX = "$$RowAdapter";
+    private static final Object NO_ADAPTER = new Object();
+    private static final Map<Class<?>, Object> sAdapters = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ColumnCodec> sCodecs = new ConcurrentHashMap<>();
+    private static final String[] ALL_COLUMNS = new String[0];
+    private static final Map<Class<?>, String[]> sEagerProjections = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, String[]> sLazyColumns = new ConcurrentHashMap<>();
+    private static final String NO_PRIMARY_KEY = "";
+    private static final Map<Class<?>, String> sPrimaryKeys = new ConcurrentHashMap<>();
+    // Updates and upserts by primary key read it from every row, the fields are looked up once per class
+    private static final Map<Class<?>, Map<String, Field>> sColumnFields = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the generated {@link RowAdapter} for a row class, or null if the annotation processor
+     * didn't generate one (in which case reflection is used).
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public static <T> RowAdapter<T> getAdapter(@NonNull Class<T> cls) {
+        Object adapter = sAdapters.get(cls);
+        if (adapter == null) {
             try {
-                if (out != null)
-                    out.close();
-            } catch (IOException ignored) {
+                final Class<?> adapterCls = Class.forName(cls.getName() + ADAPTER_SUFFIX, true, cls.getClassLoader());
+                adapter = adapterCls.newInstance();
+            } catch (ClassNotFoundException e) {
+                adapter = NO_ADAPTER;
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to instantiate the row adapter for " + cls.getName(), e);
             }
-            try {
-                bos.close();
-            } catch (IOException ignored) {
+            sAdapters.put(cls, adapter);
+        }
+        return adapter != NO_ADAPTER ? (RowAdapter<T>) adapter : null;
+    }
+
+    private static void resolveLazyColumns(@NonNull Class<?> cls) {
+        final List<String> eager = new ArrayList<>();
+        final List<String> lazy = new ArrayList<>();
+        for (Field fld : cls.getDeclaredFields()) {
+            final Column colAnn = fld.getAnnotation(Column.class);
+            if (colAnn == null) continue;
+            if (colAnn.lazy()) {
+                final int accessor = BindingPlan.accessorFor(fld.getType());
+                if (colAnn.primaryKey() || (accessor != BindingPlan.ACCESSOR_BYTES &&
+                        accessor != BindingPlan.ACCESSOR_BITMAP && accessor != BindingPlan.ACCESSOR_OBJECT)) {
+                    throw new IllegalStateException(String.format("Column %s in %s can't be lazy, only BLOB columns can.",
+                            fld.getName(), cls.getName()));
+                }
+                lazy.add(fld.getName());
+            } else {
+                eager.add(fld.getName());
             }
         }
+        sLazyColumns.put(cls, lazy.toArray(new String[lazy.size()]));
+        sEagerProjections.put(cls, lazy.isEmpty() ? ALL_COLUMNS : eager.toArray(new String[eager.size()]));
     }
 
-    @SuppressWarnings("unchecked")
-    private static <T> T deserializeObject(byte[] data, Class<T> cls) {
-        ByteArrayInputStream bis = new ByteArrayInputStream(data);
-        ObjectInput in = null;
-        try {
-            in = new ObjectInputStream(bis);
-            return (T) in.readObject();
-        } catch (Exception e) {
-            throw new IllegalStateException("Unable to deserialize data to type " + cls.getName(), e);
-        } finally {
-            Utils.closeQuietely(bis);
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException ignored) {
+    /**
+     * Returns the columns a select without a projection reads: every column except lazy ones, or null if the
+     * class has no lazy columns (so every column is read).
+     */
+    @Nullable
+    public static String[] getEagerProjection(@NonNull Class<?> cls) {
+        String[] projection = sEagerProjections.get(cls);
+        if (projection == null) {
+            resolveLazyColumns(cls);
+            projection = sEagerProjections.get(cls);
+        }
+        return projection != ALL_COLUMNS ? projection : null;
+    }
+
+    /**
+     * Returns the row class's lazy columns, which may be empty.
+     */
+    @NonNull
+    public static String[] getLazyColumns(@NonNull Class<?> cls) {
+        String[] columns = sLazyColumns.get(cls);
+        if (columns == null) {
+            resolveLazyColumns(cls);
+            columns = sLazyColumns.get(cls);
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the name of the row class's primary key column, or null if it doesn't have one.
+     */
+    @Nullable
+    public static String getPrimaryKeyColumn(@NonNull Class<?> cls) {
+        String column = sPrimaryKeys.get(cls);
+        if (column == null) {
+            column = NO_PRIMARY_KEY;
+            for (Field fld : cls.getDeclaredFields()) {
+                final Column colAnn = fld.getAnnotation(Column.class);
+                if (colAnn != null && colAnn.primaryKey()) {
+                    column = fld.getName();
+                    break;
                 }
             }
+            sPrimaryKeys.put(cls, column);
         }
+        //noinspection StringEquality
+        return column != NO_PRIMARY_KEY ? column : null;
+    }
+
+    /**
+     * Reads the value of a single column field from a row.
+     */
+    @Nullable
+    public static Object getColumnValue(@NonNull Object row, @NonNull String column) {
+        final Class<?> cls = row.getClass();
+        Map<String, Field> fields = sColumnFields.get(cls);
+        if (fields == null) {
+            fields = new ConcurrentHashMap<>();
+            sColumnFields.put(cls, fields);
+        }
+        Field fld = fields.get(column);
+        try {
+            if (fld == null) {
+                fld = cls.getDeclaredField(column);
+                fld.setAccessible(true);
+                fields.put(column, fld);
+            }
+            return fld.get(row);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(String.format("No field found in %s for column %s",
+                    cls.getName(), column));
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the shared instance of the codec a field's @Column annotation asks for.
+     */
+    @NonNull
+    public static ColumnCodec getCodec(@NonNull Field field) {
+        final Column colAnn = field.getAnnotation(Column.class);
+        final Class<? extends ColumnCodec> codecCls = colAnn != null ? colAnn.codec() : SerializableCodec.class;
+        ColumnCodec codec = sCodecs.get(codecCls);
+        if (codec == null) {
+            try {
+                codec = codecCls.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to instantiate codec " + codecCls.getName(), e);
+            }
+            sCodecs.put(codecCls, codec);
+        }
+        return codec;
     }
 
     private static String getClassTypeString(Class<?> cls) {
@@ -97,6 +203,9 @@ class ClassRowConverter {
     }
 
     public static String getClassSchema(Class<?> cls) {
+        final RowAdapter<?> adapter = getAdapter(cls);
+        if (adapter != null)
+            return adapter.schema();
         StringBuilder sb = new StringBuilder();
         Field[] fields = cls.getDeclaredFields();
         for (Field fld : fields) {
@@ -111,164 +220,75 @@ class ClassRowConverter {
         return sb.toString();
     }
 
-    private static int cursorTypeToColumnType(int cursorType) {
-        switch (cursorType) {
-            default:
-                return DataType.BLOB;
-            case Cursor.FIELD_TYPE_FLOAT:
-                return DataType.REAL;
-            case Cursor.FIELD_TYPE_INTEGER:
-                return DataType.INTEGER;
-            case Cursor.FIELD_TYPE_STRING:
-                return DataType.TEXT;
+    /**
+     * Returns a CREATE INDEX IF NOT EXISTS statement for every index the row class declares, through
+     * {@link Column#index()}, {@link Column#unique()}, {@link Index} or {@link Indices}.
+     */
+    @NonNull
+    public static List<String> getIndexStatements(@NonNull String table, @NonNull Class<?> cls) {
+        final List<String> statements = new ArrayList<>();
+        for (Field fld : cls.getDeclaredFields()) {
+            final Column colAnn = fld.getAnnotation(Column.class);
+            if (colAnn != null && (colAnn.index() || colAnn.unique()))
+                statements.add(getIndexStatement(table, "", new String[]{fld.getName()}, colAnn.unique()));
         }
+        final Index index = cls.getAnnotation(Index.class);
+        if (index != null)
+            statements.add(getIndexStatement(table, index.name(), index.columns(), index.unique()));
+        final Indices indices = cls.getAnnotation(Indices.class);
+        if (indices != null) {
+            for (Index idx : indices.value())
+                statements.add(getIndexStatement(table, idx.name(), idx.columns(), idx.unique()));
+        }
+        return statements;
     }
 
-    private static void loadFieldIntoRow(Cursor cursor, Field field, Object row, int columnIndex, int columnType) throws Exception {
-        if (cursor.isNull(columnIndex)) {
-            field.set(row, null);
-            return;
+    private static String getIndexStatement(String table, String name, String[] columns, boolean unique) {
+        if (columns.length == 0)
+            throw new IllegalStateException("An index on table " + table + " has no columns.");
+        final StringBuilder sb = new StringBuilder("CREATE ");
+        if (unique)
+            sb.append("UNIQUE ");
+        sb.append("INDEX IF NOT EXISTS ");
+        if (name.isEmpty()) {
+            // Derived from the table too, since index names are shared by every table in the database
+            sb.append("index_").append(table);
+            for (String column : columns)
+                sb.append('_').append(column);
+        } else {
+            sb.append(name);
         }
-        final Class<?> fieldType = field.getType();
-        switch (columnType) {
-            case DataType.BLOB:
-                byte[] blob = cursor.getBlob(columnIndex);
-                if (fieldType == byte[].class)
-                    field.set(row, blob);
-                else if (fieldType == Bitmap.class)
-                    field.set(row, BitmapFactory.decodeByteArray(blob, 0, blob.length));
-                else
-                    field.set(row, deserializeObject(blob, fieldType));
-                break;
-            case DataType.REAL:
-                if (fieldType == float.class || fieldType == Float.class)
-                    field.set(row, cursor.getFloat(columnIndex));
-                else if (fieldType == double.class || fieldType == Double.class)
-                    field.set(row, cursor.getDouble(columnIndex));
-                else
-                    throw new IllegalStateException(String.format("Column %s of type REAL (float) doesn't match field of type %s",
-                            field.getName(), fieldType.getName()));
-                break;
-            case DataType.INTEGER:
-                if (fieldType == short.class || fieldType == Short.class)
-                    field.set(row, cursor.getShort(columnIndex));
-                else if (fieldType == int.class || fieldType == Integer.class)
-                    field.set(row, cursor.getInt(columnIndex));
-                else if (fieldType == long.class || fieldType == Long.class)
-                    field.set(row, cursor.getLong(columnIndex));
-                else if (fieldType == boolean.class || fieldType == Boolean.class)
-                    field.set(row, cursor.getInt(columnIndex) == 1);
-                else
-                    throw new IllegalStateException(String.format("Column %s of type INTEGER (float) doesn't match field of type %s",
-                            field.getName(), fieldType.getName()));
-                break;
-            case DataType.TEXT:
-                String text = cursor.getString(columnIndex);
-                if (fieldType == String.class || fieldType == CharSequence.class)
-                    field.set(row, text);
-                else if (fieldType == char[].class || fieldType == Character[].class)
-                    field.set(row, text.length() > 0 ? text.toCharArray() : null);
-                else if (fieldType == char.class || fieldType == Character.class)
-                    field.set(row, text.length() > 0 ? text.charAt(0) : null);
-                else
-                    throw new IllegalStateException(String.format("Column %s of type REAL (float) doesn't match field of type %s",
-                            field.getName(), fieldType.getName()));
-                break;
+        sb.append(" ON ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(columns[i]);
         }
+        return sb.append(')').toString();
     }
 
     public static <T> T cursorToCls(Cursor cursor, Class<T> cls) {
-        T row = Utils.newInstance(cls);
-        for (int columnIndex = 0; columnIndex < cursor.getColumnCount(); columnIndex++) {
-            final String columnName = cursor.getColumnName(columnIndex);
-            final int columnType = cursorTypeToColumnType(cursor.getType(columnIndex));
-            try {
-                final Field columnField = cls.getDeclaredField(columnName);
-                loadFieldIntoRow(cursor, columnField, row, columnIndex, columnType);
-            } catch (NoSuchFieldException e) {
-                throw new IllegalStateException(String.format("No field found in %s for column %s (of type %s)",
-                        cls.getName(), columnName, DataType.name(columnType)));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        }
-        return row;
+        return BindingPlan.get(cursor, cls).read(cursor);
     }
 
     public static ContentValues[] clsArrayToVals(@NonNull Object[] rows, @Nullable String[] projection) {
         ContentValues[] vals = new ContentValues[rows.length];
+        if (rows.length == 0) return vals;
+        final RowWriter writer = RowWriter.get(rows[0].getClass());
+        final boolean[] include = writer.include(projection);
         for (int i = 0; i < rows.length; i++)
-            vals[i] = clsToVals(rows[i], projection);
+            vals[i] = writer.toValues(rows[i], include, false);
         return vals;
     }
 
     public static ContentValues clsToVals(@NonNull Object row, @Nullable String[] projection) {
-        try {
-            ContentValues vals = new ContentValues();
-            Field[] fields = row.getClass().getDeclaredFields();
-            int columnCount = 0;
-            for (Field fld : fields) {
-                if (projection != null && projection.length > 0) {
-                    boolean skip = true;
-                    for (String proj : projection) {
-                        if (proj != null && proj.equalsIgnoreCase(fld.getName())) {
-                            skip = false;
-                            break;
-                        }
-                    }
-                    if (skip) continue;
-                }
-                Column colAnn = fld.getAnnotation(Column.class);
-                if (colAnn == null) continue;
-                columnCount++;
-                if (colAnn.autoIncrement()) continue;
-                final Class<?> fldType = fld.getType();
-                final Object fldVal = fld.get(row);
-                if (fldVal == null) continue;
-
-                if (fldType.equals(String.class)) {
-                    vals.put(fld.getName(), (String) fldVal);
-                } else if (fldType.equals(char[].class) || fldType.equals(Character[].class)) {
-                    vals.put(fld.getName(), new String((char[]) fldVal));
-                } else if (fldType.equals(Float.class) || fldType.equals(float.class)) {
-                    vals.put(fld.getName(), (float) fldVal);
-                } else if (fldType.equals(Double.class) || fldType.equals(double.class)) {
-                    vals.put(fld.getName(), (double) fldVal);
-                } else if (fldType.equals(Short.class) || fldType.equals(short.class)) {
-                    vals.put(fld.getName(), (short) fldVal);
-                } else if (fldType.equals(Integer.class) || fldType.equals(int.class)) {
-                    vals.put(fld.getName(), (int) fldVal);
-                } else if (fldType.equals(Long.class) || fldType.equals(long.class)) {
-                    vals.put(fld.getName(), (long) fldVal);
-                } else if (fldType.equals(char.class) || fldType.equals(Character.class)) {
-                    vals.put(fld.getName(), Character.toString((char) fldVal));
-                } else if (fldType.equals(Boolean.class) || fldType.equals(boolean.class)) {
-                    vals.put(fld.getName(), ((boolean) fldVal) ? 1 : 0);
-                } else if (fldType.equals(Bitmap.class)) {
-                    vals.put(fld.getName(), bitmapToBytes((Bitmap) fldVal));
-                } else if (fldType.equals(Byte[].class) || fldType.equals(byte[].class)) {
-                    vals.put(fld.getName(), (byte[]) fldVal);
-                } else if (fldVal instanceof Serializable) {
-                    vals.put(fld.getName(), serializeObject(fldVal));
-                } else {
-                    throw new IllegalStateException("Class " + fldType.getName() + " should be marked as Serializable in order to be inserted.");
-                }
-            }
-            if (columnCount == 0)
-                throw new IllegalStateException("Class " + row.getClass().getName() + " has no column fields.");
-            return vals;
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
-        }
+        return clsToVals(row, projection, false);
     }
 
-    private static byte[] bitmapToBytes(Bitmap bitmap) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        try {
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-            return stream.toByteArray();
-        } finally {
-            Utils.closeQuietely(stream);
-        }
+    /**
+     * @param local Whether the values are written to this app's own database rather than sent to a content provider.
+     */
+    public static ContentValues clsToVals(@NonNull Object row, @Nullable String[] projection, boolean local) {
+        final RowWriter writer = RowWriter.get(row.getClass());
+        return writer.toValues(row, writer.include(projection), local);
     }
 }
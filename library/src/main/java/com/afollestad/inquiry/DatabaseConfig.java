@@ -0,0 +1,166 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Connection settings applied whenever Inquiry opens a database. Anything left unset keeps SQLite's default.
+ * <p/>
+ * The synchronous, cache size, mmap size and temp store settings are SQLite PRAGMAs, which apply per connection.
+ * Android only lets them be set on its primary connection, which makes every write. Without write-ahead logging
+ * that connection runs all reads too; with it, reads mostly run on separate read connections, which keep
+ * SQLite's defaults for these.
+ * Create one with {@link Builder}, and pass it to {@link Inquiry#init(android.content.Context, String, DatabaseConfig)}
+ * or {@link Inquiry#configure(String, DatabaseConfig)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class DatabaseConfig {
+
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    public static final int TEMP_STORE_DEFAULT = 0;
+    public static final int TEMP_STORE_FILE = 1;
+    public static final int TEMP_STORE_MEMORY = 2;
+
+    static final int UNSET = -1;
+
+    final boolean writeAheadLogging;
+    final int synchronous;
+    final int cacheSizeKb;
+    final long mmapSize;
+    final int tempStore;
+    final int statementCacheSize;
+    final boolean rebuildTables;
+    final int version;
+    final Migration[] migrations;
+
+    private DatabaseConfig(Builder builder) {
+        writeAheadLogging = builder.mWriteAheadLogging;
+        synchronous = builder.mSynchronous;
+        cacheSizeKb = builder.mCacheSizeKb;
+        mmapSize = builder.mMmapSize;
+        tempStore = builder.mTempStore;
+        statementCacheSize = builder.mStatementCacheSize;
+        rebuildTables = builder.mRebuildTables;
+        version = builder.mVersion;
+        migrations = builder.mMigrations;
+    }
+
+    public boolean isWriteAheadLoggingEnabled() {
+        return writeAheadLogging;
+    }
+
+    public static final class Builder {
+
+        private boolean mWriteAheadLogging;
+        private int mSynchronous = UNSET;
+        private int mCacheSizeKb = UNSET;
+        private long mMmapSize = UNSET;
+        private int mTempStore = UNSET;
+        private int mStatementCacheSize = UNSET;
+        private boolean mRebuildTables;
+        private int mVersion = 1;
+        private Migration[] mMigrations = new Migration[0];
+
+        /**
+         * Enables write-ahead logging, which lets reads run concurrently with a write instead of waiting for it.
+         */
+        @NonNull
+        public Builder writeAheadLogging(boolean enabled) {
+            mWriteAheadLogging = enabled;
+            return this;
+        }
+
+        /**
+         * One of the SYNCHRONOUS_ constants. NORMAL is safe from corruption in WAL mode and avoids an fsync per commit.
+         */
+        @NonNull
+        public Builder synchronous(int level) {
+            if (level < SYNCHRONOUS_OFF || level > SYNCHRONOUS_FULL)
+                throw new IllegalArgumentException("Unknown synchronous level: " + level);
+            mSynchronous = level;
+            return this;
+        }
+
+        /**
+         * The maximum amount of memory used to cache database pages, in kilobytes. Only applies to the primary
+         * connection, see {@link DatabaseConfig}.
+         */
+        @NonNull
+        public Builder cacheSize(int kilobytes) {
+            mCacheSizeKb = kilobytes;
+            return this;
+        }
+
+        /**
+         * The maximum number of bytes of the database file to access through memory-mapped I/O, 0 disables it.
+         * Only applies to the primary connection, see {@link DatabaseConfig}.
+         */
+        @NonNull
+        public Builder mmapSize(long bytes) {
+            mMmapSize = bytes;
+            return this;
+        }
+
+        /**
+         * One of the TEMP_STORE_ constants, where temporary tables and indices are kept. Only applies to the
+         * primary connection, see {@link DatabaseConfig}.
+         */
+        @NonNull
+        public Builder tempStore(int tempStore) {
+            if (tempStore < TEMP_STORE_DEFAULT || tempStore > TEMP_STORE_MEMORY)
+                throw new IllegalArgumentException("Unknown temp store: " + tempStore);
+            mTempStore = tempStore;
+            return this;
+        }
+
+        /**
+         * How many compiled statements each connection keeps (25 by default, at most 100). Queries whose SQL
+         * matches a cached statement, such as runs of a {@link PreparedQuery}, skip parsing and planning.
+         */
+        @NonNull
+        public Builder statementCacheSize(int statements) {
+            if (statements < 1 || statements > 100)
+                throw new IllegalArgumentException("The statement cache size must be between 1 and 100.");
+            mStatementCacheSize = statements;
+            return this;
+        }
+
+        /**
+         * Lets Inquiry rebuild a table whose columns changed in ways SQLite can't alter in place: a column whose
+         * type or constraints changed, a new primary key, or a column the row class no longer declares. Rebuilding
+         * drops every column the row class doesn't declare, so only enable this if each table is mapped by a
+         * single row class with all of its columns. Disabled by default, such changes need a {@link Migration}.
+         */
+        @NonNull
+        public Builder rebuildTables(boolean enabled) {
+            mRebuildTables = enabled;
+            return this;
+        }
+
+        /**
+         * The database's schema version, 1 by default. Raising it runs the {@link #migrations(Migration...)}
+         * leading from the version on disk to this one when the database is next opened.
+         */
+        @NonNull
+        public Builder version(int version) {
+            if (version < 1)
+                throw new IllegalArgumentException("The version must be at least 1.");
+            mVersion = version;
+            return this;
+        }
+
+        @NonNull
+        public Builder migrations(@NonNull Migration... migrations) {
+            mMigrations = migrations.clone();
+            return this;
+        }
+
+        @NonNull
+        public DatabaseConfig build() {
+            return new DatabaseConfig(this);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.afollestad.inquiry;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shares row instances by primary key, so loading a row that's already in memory returns the existing instance
+ * instead of converting a duplicate. Only the tables passed to the constructor are tracked, and only rows that
+ * were read with all of their columns (no projection or grouping). Rows are held weakly: once the app no longer
+ * references one, it's loaded again the next time. Each table keeps at most a fixed number of rows.
+ * <p/>
+ * Inserts, upserts and primary key updates made through {@link Query#run()} evict the rows they wrote; other
+ * updates and deletes evict every row of the table. Enable it with {@link Inquiry#setIdentityMap(IdentityMap)},
+ * and look rows up with {@link Inquiry#get(String, Class, Object)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class IdentityMap {
+
+    private final int mMaxRowsPerTable;
+    private final Set<String> mTables;
+    private final Map<String, LruCache<String, WeakReference<Object>>> mRows = new HashMap<>();
+    // Bumped by every eviction, so a read which overlapped a write doesn't share what it saw before the write
+    private final Map<String, Long> mGenerations = new HashMap<>();
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param maxRowsPerTable How many rows are tracked per table; the least recently used ones are dropped beyond that.
+     * @param tables          The tables whose rows are shared.
+     */
+    public IdentityMap(int maxRowsPerTable, @NonNull String... tables) {
+        if (maxRowsPerTable < 1)
+            throw new IllegalArgumentException("The identity map must hold at least one row per table.");
+        if (tables.length == 0)
+            throw new IllegalArgumentException("At least one table must be tracked.");
+        mMaxRowsPerTable = maxRowsPerTable;
+        final Set<String> tracked = new HashSet<>();
+        Collections.addAll(tracked, tables);
+        mTables = Collections.unmodifiableSet(tracked);
+    }
+
+    private static String tableKey(String database, String table) {
+        return database + '/' + table;
+    }
+
+    public boolean tracks(@NonNull String table) {
+        return mTables.contains(table);
+    }
+
+    private long getGeneration(String tableKey) {
+        final Long generation = mGenerations.get(tableKey);
+        return generation != null ? generation : 0;
+    }
+
+    /**
+     * Returns the loaded instance of a row, or null if it isn't loaded (or was loaded as a different class).
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    synchronized <T> T get(@NonNull String database, @NonNull String table, @NonNull Class<T> rowClass, @NonNull String key) {
+        final LruCache<String, WeakReference<Object>> rows = mRows.get(tableKey(database, table));
+        final WeakReference<Object> ref = rows != null ? rows.get(key) : null;
+        final Object row = ref != null ? ref.get() : null;
+        if (row == null || row.getClass() != rowClass) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return (T) row;
+    }
+
+    private synchronized void put(String tableKey, long generation, String key, Object row) {
+        if (getGeneration(tableKey) != generation) return;
+        LruCache<String, WeakReference<Object>> rows = mRows.get(tableKey);
+        if (rows == null) {
+            rows = new LruCache<>(mMaxRowsPerTable);
+            mRows.put(tableKey, rows);
+        }
+        rows.put(key, new WeakReference<>(row));
+    }
+
+    synchronized void evict(@NonNull String database, @NonNull String table, @NonNull String key) {
+        final String tableKey = tableKey(database, table);
+        mGenerations.put(tableKey, getGeneration(tableKey) + 1);
+        final LruCache<String, WeakReference<Object>> rows = mRows.get(tableKey);
+        if (rows != null)
+            rows.remove(key);
+    }
+
+    synchronized void evictTable(@NonNull String database, @NonNull String table) {
+        final String tableKey = tableKey(database, table);
+        mGenerations.put(tableKey, getGeneration(tableKey) + 1);
+        mRows.remove(tableKey);
+    }
+
+    /**
+     * Starts sharing the rows of a select, or returns null if the row class has no primary key.
+     * Must be called before the select runs.
+     */
+    @Nullable
+    synchronized <T> Session<T> newSession(@NonNull String database, @NonNull String table, @NonNull Class<T> rowClass) {
+        final String keyColumn = ClassRowConverter.getPrimaryKeyColumn(rowClass);
+        if (keyColumn == null) return null;
+        final String tableKey = tableKey(database, table);
+        return new Session<>(this, database, table, tableKey, getGeneration(tableKey), rowClass, keyColumn);
+    }
+
+    public synchronized void clear() {
+        mGenerations.clear();
+        mRows.clear();
+    }
+
+    /**
+     * The number of rows that were already loaded.
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * The number of rows that had to be converted (or loaded from the database).
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * The number of rows tracked across all tables, including ones which have since been garbage collected.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (LruCache<String, WeakReference<Object>> rows : mRows.values())
+            size += rows.size();
+        return size;
+    }
+
+    /**
+     * Shares the rows of a single cursor.
+     */
+    static final class Session<T> {
+
+        private final IdentityMap mMap;
+        private final String mDatabase;
+        private final String mTable;
+        private final String mTableKey;
+        private final long mGeneration;
+        private final Class<T> mRowClass;
+        private final String mKeyColumn;
+        private int mKeyIndex = -2;
+        @Nullable
+        private String mKey;
+
+        Session(IdentityMap map, String database, String table, String tableKey, long generation,
+                Class<T> rowClass, String keyColumn) {
+            mMap = map;
+            mDatabase = database;
+            mTable = table;
+            mTableKey = tableKey;
+            mGeneration = generation;
+            mRowClass = rowClass;
+            mKeyColumn = keyColumn;
+        }
+
+        /**
+         * Returns the loaded instance of the cursor's current row, or null if it has to be converted.
+         */
+        @Nullable
+        T get(@NonNull Cursor cursor) {
+            if (mKeyIndex == -2)
+                mKeyIndex = cursor.getColumnIndex(mKeyColumn);
+            mKey = mKeyIndex != -1 && !cursor.isNull(mKeyIndex) ? cursor.getString(mKeyIndex) : null;
+            return mKey != null ? mMap.get(mDatabase, mTable, mRowClass, mKey) : null;
+        }
+
+        /**
+         * Shares the row just converted from the cursor's current row.
+         */
+        void put(@NonNull T row) {
+            if (mKey != null)
+                mMap.put(mTableKey, mGeneration, mKey, row);
+        }
+    }
+}
@@ -6,6 +6,12 @@ import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * @author Aidan Follestad (afollestad)
  */
@@ -17,11 +23,30 @@ public final class Inquiry {
     protected Handler mHandler;
     @Nullable
     protected String mDatabaseName;
+    private final Map<String, SQLiteHelper> mDatabases = new HashMap<>();
+    private final Map<String, DatabaseConfig> mConfigs = new HashMap<>();
+    private QueryExecutor mExecutor;
+    @Nullable
+    private QueryCache mQueryCache;
+    private IdentityMap mIdentityMap;
+    private BitmapPool mBitmapPool;
+    private final Map<String, List<QueryObserver<?>>> mTableObservers = new HashMap<>();
+    private final List<QueryListener> mQueryListeners = new CopyOnWriteArrayList<>();
 
     private Inquiry() {
         mHandler = new Handler();
     }
 
+    /**
+     * Initializes Inquiry with a database whose connections use the given settings.
+     */
+    @NonNull
+    public static Inquiry init(@NonNull Context context, @NonNull String databaseName, @NonNull DatabaseConfig config) {
+        final Inquiry inquiry = init(context, databaseName);
+        inquiry.configure(databaseName, config);
+        return inquiry;
+    }
+
     @NonNull
     public static Inquiry init(@NonNull Context context, @Nullable String databaseName) {
         //noinspection ConstantConditions
@@ -41,6 +66,9 @@ public final class Inquiry {
 
     public static void deinit() {
         if (mInquiry != null) {
+            mInquiry.closeDatabases();
+            if (mInquiry.mExecutor != null)
+                mInquiry.mExecutor.shutdown();
             mInquiry.mContext = null;
             mInquiry.mHandler = null;
             mInquiry.mDatabaseName = null;
@@ -48,9 +76,229 @@ public final class Inquiry {
         }
     }
 
+    /**
+     * Returns the helper for the current database, opening it on first use. Every query against the same
+     * database shares it, along with its open connection and record of already created tables.
+     */
+    @NonNull
+    protected SQLiteHelper getDatabase() {
+        if (mDatabaseName == null)
+            throw new IllegalStateException("Inquiry was not initialized with a database name, it can only use content providers in this configuration.");
+        synchronized (mDatabases) {
+            SQLiteHelper helper = mDatabases.get(mDatabaseName);
+            if (helper == null) {
+                helper = new SQLiteHelper(mContext, mDatabaseName, getConfig(mDatabaseName));
+                mDatabases.put(mDatabaseName, helper);
+            }
+            return helper;
+        }
+    }
+
+    /**
+     * Sets the connection settings for a database. If the database is already open, it's closed so the
+     * settings apply the next time it's used.
+     */
+    public void configure(@NonNull String databaseName, @NonNull DatabaseConfig config) {
+        synchronized (mDatabases) {
+            mConfigs.put(databaseName, config);
+            final SQLiteHelper helper = mDatabases.remove(databaseName);
+            if (helper != null)
+                helper.close();
+        }
+    }
+
+    @NonNull
+    public DatabaseConfig getConfig(@NonNull String databaseName) {
+        synchronized (mDatabases) {
+            final DatabaseConfig config = mConfigs.get(databaseName);
+            return config != null ? config : new DatabaseConfig.Builder().build();
+        }
+    }
+
+    /**
+     * Replaces the executor used by asynchronous queries, e.g. to change how many reads can run at once.
+     * The previous executor is shut down after the queries it already accepted finish.
+     */
+    public synchronized void setExecutor(@NonNull QueryExecutor executor) {
+        if (mExecutor != null && mExecutor != executor)
+            mExecutor.shutdown();
+        mExecutor = executor;
+    }
+
+    /**
+     * Returns the executor used by asynchronous queries, which also exposes queue depth and wait time metrics.
+     */
+    @NonNull
+    public synchronized QueryExecutor getExecutor() {
+        if (mExecutor == null)
+            mExecutor = new QueryExecutor();
+        return mExecutor;
+    }
+
+    /**
+     * Enables caching of select results, or disables it if cache is null. Writes made through queries
+     * invalidate the cached results of the tables they change.
+     */
+    public synchronized void setQueryCache(@Nullable QueryCache cache) {
+        if (mQueryCache != null && mQueryCache != cache)
+            mQueryCache.clear();
+        mQueryCache = cache;
+    }
+
+    @Nullable
+    public synchronized QueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
+    /**
+     * Enables sharing row instances by primary key, or disables it if identityMap is null.
+     */
+    public synchronized void setIdentityMap(@Nullable IdentityMap identityMap) {
+        if (mIdentityMap != null && mIdentityMap != identityMap)
+            mIdentityMap.clear();
+        mIdentityMap = identityMap;
+    }
+
+    @Nullable
+    public synchronized IdentityMap getIdentityMap() {
+        return mIdentityMap;
+    }
+
+    /**
+     * Returns the row with the given primary key. If the table is tracked by the {@link IdentityMap} and the row
+     * is already loaded, the loaded instance is returned without querying the database.
+     */
+    @Nullable
+    public <RowType> RowType get(@NonNull String table, @NonNull Class<RowType> rowType, @NonNull Object id) {
+        final IdentityMap identities = getIdentityMap();
+        if (identities != null && identities.tracks(table)) {
+            final RowType row = identities.get(getDatabase().getDatabaseName(), table, rowType, id.toString());
+            if (row != null) return row;
+        }
+        final String keyColumn = ClassRowConverter.getPrimaryKeyColumn(rowType);
+        if (keyColumn == null)
+            throw new IllegalStateException(rowType.getName() + " has no primary key to look rows up by.");
+        return selectFrom(table, rowType)
+                .where(keyColumn + " = ?", id.toString())
+                .one();
+    }
+
+    /**
+     * Lets Bitmaps loaded from Bitmap columns reuse the memory of bitmaps in the pool, or stops if pool is null.
+     */
+    public synchronized void setBitmapPool(@Nullable BitmapPool pool) {
+        if (mBitmapPool != null && mBitmapPool != pool)
+            mBitmapPool.clear();
+        mBitmapPool = pool;
+    }
+
+    @Nullable
+    public synchronized BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Deletes the files of Bitmap columns stored outside their rows (see
+     * {@link com.afollestad.inquiry.annotations.BitmapColumn#fileThreshold()}) which none of the given tables
+     * reference anymore. Pass every table which stores Bitmaps in files, since files referenced only by other
+     * tables are deleted too. Files written within the last hour are always kept.
+     *
+     * @return The number of files deleted.
+     */
+    public int pruneBitmapFiles(@NonNull String... tables) {
+        return BitmapStorage.prune(getDatabase().getReadableDatabase(), tables);
+    }
+
+    /**
+     * Registers a listener which receives timings for every query. Queries aren't timed while no listeners
+     * are registered.
+     */
+    public void addQueryListener(@NonNull QueryListener listener) {
+        mQueryListeners.add(listener);
+    }
+
+    public void removeQueryListener(@NonNull QueryListener listener) {
+        mQueryListeners.remove(listener);
+    }
+
+    boolean hasQueryListeners() {
+        return !mQueryListeners.isEmpty();
+    }
+
+    void reportQuery(@NonNull QueryMetrics metrics) {
+        for (QueryListener listener : mQueryListeners)
+            listener.onQuery(metrics);
+    }
+
+    /**
+     * Called after anything writes to a database table through Inquiry.
+     */
+    void onTableChanged(@NonNull String databaseName, @NonNull String table) {
+        final QueryCache cache = getQueryCache();
+        if (cache != null)
+            cache.invalidate(databaseName, table);
+        final List<QueryObserver<?>> observers;
+        synchronized (mTableObservers) {
+            final List<QueryObserver<?>> registered = mTableObservers.get(databaseName + '/' + table);
+            if (registered == null) return;
+            observers = new ArrayList<>(registered);
+        }
+        for (QueryObserver<?> observer : observers)
+            observer.onChanged();
+    }
+
+    void addTableObserver(@NonNull String databaseName, @NonNull String table, @NonNull QueryObserver<?> observer) {
+        synchronized (mTableObservers) {
+            List<QueryObserver<?>> observers = mTableObservers.get(databaseName + '/' + table);
+            if (observers == null) {
+                observers = new ArrayList<>();
+                mTableObservers.put(databaseName + '/' + table, observers);
+            }
+            observers.add(observer);
+        }
+    }
+
+    void removeTableObserver(@NonNull String databaseName, @NonNull String table, @NonNull QueryObserver<?> observer) {
+        synchronized (mTableObservers) {
+            final List<QueryObserver<?>> observers = mTableObservers.get(databaseName + '/' + table);
+            if (observers == null) return;
+            observers.remove(observer);
+            if (observers.isEmpty())
+                mTableObservers.remove(databaseName + '/' + table);
+        }
+    }
+
+    private void closeDatabases() {
+        synchronized (mDatabases) {
+            for (SQLiteHelper helper : mDatabases.values())
+                helper.close();
+            mDatabases.clear();
+        }
+    }
+
     public void dropTable(@NonNull String tableName) {
-        new SQLiteHelper(mContext, mDatabaseName, null, null)
-                .getWritableDatabase().execSQL("DROP TABLE IF EXISTS " + tableName);
+        final SQLiteHelper database = getDatabase();
+        database.dropTable(tableName);
+        final IdentityMap identities = getIdentityMap();
+        if (identities != null)
+            identities.evictTable(database.getDatabaseName(), tableName);
+        onTableChanged(database.getDatabaseName(), tableName);
+    }
+
+    /**
+     * Starts a batch of inserts, updates and deletes against a content provider, see {@link ProviderBatch}.
+     */
+    @NonNull
+    public ProviderBatch batch() {
+        return new ProviderBatch(this);
+    }
+
+    /**
+     * Returns the instance if Inquiry has been initialized, without throwing if it hasn't.
+     */
+    @Nullable
+    static Inquiry peek() {
+        return mInquiry;
     }
 
     @NonNull
@@ -70,6 +318,14 @@ public final class Inquiry {
         return new Query<>(this, contentProviderUri, Query.SELECT, rowType);
     }
 
+    /**
+     * Groups independent select queries so they run concurrently, e.g. to load several tables at once.
+     */
+    @NonNull
+    public QueryGroup group(@NonNull Query<?>... queries) {
+        return new QueryGroup(this, queries);
+    }
+
     @NonNull
     public <RowType> Query<RowType> insertInto(@NonNull String table, @NonNull Class<RowType> rowType) {
         return new Query<>(this, table, Query.INSERT, rowType);
@@ -90,6 +346,15 @@ public final class Inquiry {
         return new Query<>(this, contentProviderUri, Query.UPDATE, rowType);
     }
 
+    /**
+     * Updates rows whose primary key already exists in the table and inserts the others, in one transaction
+     * per batch of rows.
+     */
+    @NonNull
+    public <RowType> Query<RowType> upsert(@NonNull String table, @NonNull Class<RowType> rowType) {
+        return new Query<>(this, table, Query.UPSERT, rowType);
+    }
+
     @NonNull
     public <RowType> Query<RowType> deleteFrom(@NonNull String table, @NonNull Class<RowType> rowType) {
         return new Query<>(this, table, Query.DELETE, rowType);
@@ -0,0 +1,30 @@
+package com.afollestad.inquiry;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+/**
+ * A step which upgrades a database from one version to another, registered with
+ * {@link DatabaseConfig.Builder#migrations(Migration...)}. Columns added to or removed from row classes don't
+ * need a migration, Inquiry reconciles each table with its row class when it's first used. Migrations are for
+ * everything else, e.g. renaming a table or transforming existing values.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public abstract class Migration {
+
+    final int startVersion;
+    final int endVersion;
+
+    public Migration(int startVersion, int endVersion) {
+        if (endVersion <= startVersion)
+            throw new IllegalArgumentException("A migration must go from a lower version to a higher one.");
+        this.startVersion = startVersion;
+        this.endVersion = endVersion;
+    }
+
+    /**
+     * Runs inside of the upgrade's transaction.
+     */
+    public abstract void migrate(@NonNull SQLiteDatabase db);
+}
@@ -0,0 +1,61 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * One page of results from a keyset-paginated query. Pass {@link #getNextToken()} to {@link Query#after(Token)}
+ * to load the following page; since each page seeks directly to where the last one ended, deep pages cost
+ * the same as the first.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class Page<RowType> {
+
+    private final RowType[] mRows;
+    private final boolean mHasMore;
+    @Nullable
+    private final Token mNextToken;
+
+    Page(@NonNull RowType[] rows, boolean hasMore, @Nullable Token nextToken) {
+        mRows = rows;
+        mHasMore = hasMore;
+        mNextToken = nextToken;
+    }
+
+    @NonNull
+    public RowType[] getRows() {
+        return mRows;
+    }
+
+    /**
+     * Whether at least one more row follows this page.
+     */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    /**
+     * The position right after this page's last row, or null if this page is empty.
+     */
+    @Nullable
+    public Token getNextToken() {
+        return mNextToken;
+    }
+
+    /**
+     * A continuation point holding the sort column and primary key values of the last row of a page.
+     */
+    public static final class Token {
+
+        @Nullable
+        final Object sortValue;
+        @Nullable
+        final Object keyValue;
+
+        Token(@Nullable Object sortValue, @Nullable Object keyValue) {
+            this.sortValue = sortValue;
+            this.keyValue = keyValue;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Walks a keyset-paginated query page by page. Whenever a page is returned, the one after it starts loading
+ * in the background on the {@link QueryExecutor}, so it's usually ready by the time it's requested.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class Pager<RowType> {
+
+    private final Query<RowType> mQuery;
+    private final QueryExecutor mExecutor;
+    private Page.Token mToken;
+    private Future<Page<RowType>> mPrefetch;
+    private boolean mDone;
+
+    Pager(@NonNull Query<RowType> query, @NonNull QueryExecutor executor, Page.Token start) {
+        mQuery = query;
+        mExecutor = executor;
+        mToken = start;
+    }
+
+    public synchronized boolean hasNext() {
+        return !mDone;
+    }
+
+    /**
+     * Returns the next page, waiting for the background prefetch if it hasn't finished yet.
+     */
+    @NonNull
+    public synchronized Page<RowType> next() {
+        if (mDone)
+            throw new NoSuchElementException();
+        final Page<RowType> page;
+        if (mPrefetch != null) {
+            try {
+                page = mPrefetch.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the next page.", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                mPrefetch = null;
+            }
+        } else {
+            page = mQuery.loadPage(mToken, null);
+        }
+        mToken = page.getNextToken();
+        mDone = !page.hasMore();
+        if (!mDone) {
+            final Page.Token token = mToken;
+            mPrefetch = mExecutor.submitRead(new Callable<Page<RowType>>() {
+                @Override
+                public Page<RowType> call() throws Exception {
+                    return mQuery.loadPage(token, null);
+                }
+            });
+        }
+        return page;
+    }
+
+    /**
+     * Stops paging, discarding any page being prefetched.
+     */
+    public synchronized void cancel() {
+        mDone = true;
+        if (mPrefetch != null) {
+            mPrefetch.cancel(false);
+            mPrefetch = null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.afollestad.inquiry;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a content provider cursor on two threads. Moving a cross-process cursor past the end of its window blocks
+ * on a binder call which fetches the next window; here a prefetch thread walks the cursor and copies its rows into
+ * small in-memory chunks, while the reading thread converts the chunks already fetched. At most a few chunks are
+ * buffered between the two, so a slow reader doesn't pull the whole result into memory twice.
+ */
+final class PrefetchingReader implements Runnable {
+
+    /**
+     * Results smaller than this are read on a single thread; they fit in one or two windows anyway.
+     */
+    static final int MIN_ROWS = 512;
+    private static final int CHUNK_ROWS = 128;
+    private static final int QUEUED_CHUNKS = 4;
+    private static final long POLL_MILLIS = 50;
+
+    private final Cursor mCursor;
+    private final int mCount;
+    private final String[] mColumns;
+    private final BlockingQueue<MatrixCursor> mQueue = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+    private final MatrixCursor mEnd;
+    private volatile boolean mStopped;
+    private volatile RuntimeException mError;
+
+    private PrefetchingReader(Cursor cursor, int count) {
+        mCursor = cursor;
+        mCount = count;
+        mColumns = cursor.getColumnNames();
+        mEnd = new MatrixCursor(mColumns, 0);
+    }
+
+    /**
+     * Starts fetching rows in the background. The reader takes over the cursor and closes it when done.
+     *
+     * @param count The number of rows to read at most.
+     * @return Null if the executor has been shut down, in which case the cursor is left untouched.
+     */
+    @Nullable
+    static PrefetchingReader start(@NonNull QueryExecutor executor, @NonNull Cursor cursor, int count) {
+        final PrefetchingReader reader = new PrefetchingReader(cursor, count);
+        try {
+            executor.executePrefetch(reader);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        return reader;
+    }
+
+    @Override
+    public void run() {
+        try {
+            MatrixCursor chunk = null;
+            int fetched = 0;
+            while (fetched < mCount && !mStopped && mCursor.moveToNext()) {
+                if (chunk == null)
+                    chunk = new MatrixCursor(mColumns, CHUNK_ROWS);
+                final Object[] row = new Object[mColumns.length];
+                for (int i = 0; i < row.length; i++)
+                    row[i] = Utils.getValue(mCursor, i);
+                chunk.addRow(row);
+                fetched++;
+                if (chunk.getCount() == CHUNK_ROWS) {
+                    handOff(chunk);
+                    chunk = null;
+                }
+            }
+            if (chunk != null)
+                handOff(chunk);
+        } catch (RuntimeException e) {
+            mError = e;
+        } finally {
+            mCursor.close();
+            handOff(mEnd);
+        }
+    }
+
+    private void handOff(MatrixCursor chunk) {
+        try {
+            while (!mStopped) {
+                if (mQueue.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            mStopped = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Converts the rows as they're fetched, returning null if the task was cancelled.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    <T> T[] read(@NonNull Class<T> rowClass, @Nullable QueryTask task, @Nullable QueryMetrics metrics) {
+        final T[] results = (T[]) Array.newInstance(rowClass, mCount);
+        int index = 0;
+        try {
+            while (true) {
+                if (task != null && task.isCancelled())
+                    return null;
+                final long waitStart = metrics != null ? System.nanoTime() : 0;
+                final MatrixCursor chunk = mQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (metrics != null)
+                    metrics.iterateNanos += System.nanoTime() - waitStart;
+                if (chunk == null) continue;
+                if (chunk == mEnd) break;
+                final long convertStart = metrics != null ? System.nanoTime() : 0;
+                final BindingPlan<T> plan = BindingPlan.get(chunk, rowClass);
+                while (chunk.moveToNext())
+                    results[index++] = plan.read(chunk, plan.newRow(), metrics);
+                if (metrics != null)
+                    metrics.convertNanos += System.nanoTime() - convertStart;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            // Stops the prefetch thread early if reading ended early
+            mStopped = true;
+        }
+        if (mError != null)
+            throw mError;
+        return index < results.length ? Arrays.copyOf(results, index) : results;
+    }
+}
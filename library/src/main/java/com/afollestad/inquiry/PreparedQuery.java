@@ -0,0 +1,86 @@
+package com.afollestad.inquiry;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A select built into SQL once and run many times with different arguments, e.g. a lookup by key in a loop.
+ * Every run uses the exact same SQL, so each database connection reuses its compiled statement instead of
+ * parsing and planning the query again (see {@link DatabaseConfig.Builder#statementCacheSize(int)}).
+ * Arguments are bound by type: integers and booleans as INTEGER, floats as REAL, byte arrays as BLOB, and
+ * anything else as TEXT, so comparisons against typed columns can use their indexes.
+ * <p/>
+ * Prepared queries are immutable and can be shared between threads; {@link #bind(Object...)} returns a copy.
+ * Results aren't taken from or added to the {@link QueryCache}, but are reported to query listeners like any
+ * other select. Created with {@link Query#prepare()}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class PreparedQuery<RowType> {
+
+    private final Inquiry mInquiry;
+    private final SQLiteHelper mDatabase;
+    private final String mTableName;
+    private final Class<RowType> mRowClass;
+    private final String mSql;
+    private final String mSqlOne;
+    private final boolean mFullRows;
+    @Nullable
+    private final Object[] mArgs;
+
+    PreparedQuery(@NonNull Inquiry inquiry, @NonNull SQLiteHelper database, @NonNull String tableName,
+                  @NonNull Class<RowType> rowClass, @NonNull String sql, @NonNull String sqlOne, boolean fullRows,
+                  @Nullable Object[] args) {
+        mInquiry = inquiry;
+        mDatabase = database;
+        mTableName = tableName;
+        mRowClass = rowClass;
+        mSql = sql;
+        mSqlOne = sqlOne;
+        mFullRows = fullRows;
+        mArgs = args;
+    }
+
+    /**
+     * Returns a copy of this query which fills the where() placeholders with the given arguments, in order.
+     */
+    @NonNull
+    public PreparedQuery<RowType> bind(@Nullable Object... args) {
+        return new PreparedQuery<>(mInquiry, mDatabase, mTableName, mRowClass, mSql, mSqlOne, mFullRows,
+                args != null ? args.clone() : null);
+    }
+
+    /**
+     * The SQL every run of this query executes, with ? for each argument.
+     */
+    @NonNull
+    public String getSql() {
+        return mSql;
+    }
+
+    @Nullable
+    public RowType one() {
+        final RowType[] results = query(mSqlOne);
+        return results != null && results.length > 0 ? results[0] : null;
+    }
+
+    @Nullable
+    public RowType[] all() {
+        return query(mSql);
+    }
+
+    @Nullable
+    private RowType[] query(String sql) {
+        final QueryMetrics metrics = mInquiry.hasQueryListeners() ? new QueryMetrics("SELECT", mTableName, sql) : null;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final IdentityMap.Session<RowType> identities = Query.newIdentitySession(mInquiry, mDatabase, mTableName,
+                mRowClass, mFullRows);
+        final Cursor cursor = mDatabase.rawQuery(sql, mArgs, mTableName, null);
+        if (cursor == null) return null;
+        final RowType[] results = Query.readRows(mInquiry, cursor, mRowClass, -1, false, identities, null, metrics, start);
+        if (metrics != null)
+            mInquiry.reportQuery(metrics);
+        return results;
+    }
+}
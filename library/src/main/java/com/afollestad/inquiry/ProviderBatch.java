@@ -0,0 +1,167 @@
+package com.afollestad.inquiry;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.afollestad.inquiry.callbacks.RunCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups insert, update and delete queries against a content provider into as few IPC calls as possible, using
+ * ContentResolver.applyBatch() instead of one call per query (or per row). Operations are sent in chunks which
+ * stay well below the binder transaction limit, and the provider is allowed to yield its transaction every few
+ * operations so a long batch doesn't block other clients of the provider.
+ * <p/>
+ * Every query must target the same authority. Each chunk is applied atomically if the provider supports it, but
+ * a batch spanning several chunks isn't. Created with {@link Inquiry#batch()}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class ProviderBatch {
+
+    // The binder buffer is shared by every transaction in flight in the process, so chunks stay far below its 1MB
+    static final int MAX_TRANSACTION_BYTES = 256 * 1024;
+    // Some providers (e.g. contacts) reject larger batches
+    private static final int MAX_OPERATIONS = 500;
+    private static final int DEFAULT_YIELD_EVERY = 100;
+
+    private final Inquiry mInquiry;
+    private final List<Query<?>> mQueries = new ArrayList<>();
+    private String mAuthority;
+    private int mYieldEvery = DEFAULT_YIELD_EVERY;
+
+    // State of the batch being applied
+    private final ArrayList<ContentProviderOperation> mChunk = new ArrayList<>();
+    private int mChunkBytes;
+    private long mChanged;
+
+    ProviderBatch(@NonNull Inquiry inquiry) {
+        mInquiry = inquiry;
+    }
+
+    /**
+     * Adds an insert, update or delete query against a content:// URI. Queries are applied in the order they're added.
+     */
+    @NonNull
+    public ProviderBatch add(@NonNull Query<?> query) {
+        final String authority = query.getProviderAuthority();
+        if (mAuthority == null)
+            mAuthority = authority;
+        else if (!mAuthority.equals(authority))
+            throw new IllegalStateException("Every query in a batch must target the same authority, " + mAuthority + ".");
+        mQueries.add(query);
+        return this;
+    }
+
+    /**
+     * Sets how many operations the provider applies before it may yield its transaction to other clients.
+     * Zero or less never yields.
+     */
+    @NonNull
+    public ProviderBatch yieldEvery(int operations) {
+        mYieldEvery = operations;
+        return this;
+    }
+
+    /**
+     * Applies every query, returning the number of rows inserted, updated and deleted.
+     */
+    public synchronized long apply() {
+        if (mQueries.isEmpty()) return 0;
+        mChanged = 0;
+        try {
+            for (Query<?> query : mQueries)
+                query.addOperations(this);
+            flush();
+        } finally {
+            mChunk.clear();
+            mChunkBytes = 0;
+        }
+        return mChanged;
+    }
+
+    /**
+     * Applies every query on the write lane of the {@link QueryExecutor}, delivering the result on the main thread.
+     */
+    @NonNull
+    public QueryTask apply(@NonNull final RunCallback callback) {
+        final QueryTask task = new QueryTask();
+        mInquiry.getExecutor().executeWrite(task, new Runnable() {
+            @Override
+            public void run() {
+                final long changed = apply();
+                if (mInquiry.mHandler == null || task.isCancelled()) return;
+                mInquiry.mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!task.isCancelled())
+                            callback.result(changed);
+                    }
+                });
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Adds an operation to the current chunk, sending the chunk first if the operation wouldn't fit.
+     *
+     * @param values The values the operation carries, if any, used to estimate its size.
+     */
+    void addOperation(@NonNull ContentProviderOperation.Builder operation, @Nullable ContentValues values) {
+        final int bytes = estimateSize(values);
+        if (!mChunk.isEmpty() && (mChunk.size() >= MAX_OPERATIONS || mChunkBytes + bytes > MAX_TRANSACTION_BYTES))
+            flush();
+        if (mYieldEvery > 0 && !mChunk.isEmpty() && mChunk.size() % mYieldEvery == 0)
+            operation.withYieldAllowed(true);
+        mChunk.add(operation.build());
+        mChunkBytes += bytes;
+    }
+
+    private void flush() {
+        if (mChunk.isEmpty()) return;
+        final ContentProviderResult[] results;
+        try {
+            results = mInquiry.mContext.getContentResolver().applyBatch(mAuthority, mChunk);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new IllegalStateException("Failed to apply a batch to " + mAuthority + ": " + e.getMessage(), e);
+        }
+        for (ContentProviderResult result : results) {
+            if (result.count != null)
+                mChanged += result.count;
+            else if (result.uri != null)
+                mChanged++;
+        }
+        mChunk.clear();
+        mChunkBytes = 0;
+    }
+
+    /**
+     * Roughly how many bytes the values take up in a parcel: each key and value is written with a type tag and,
+     * for strings and arrays, a length.
+     */
+    static int estimateSize(@Nullable ContentValues values) {
+        // Every operation also carries its URI, type and selection
+        int bytes = 128;
+        if (values == null) return bytes;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            bytes += 8 + entry.getKey().length() * 2;
+            final Object value = entry.getValue();
+            if (value instanceof String)
+                bytes += 8 + ((String) value).length() * 2;
+            else if (value instanceof byte[])
+                bytes += 8 + ((byte[]) value).length;
+            else
+                bytes += 12;
+        }
+        return bytes;
+    }
+}
@@ -1,16 +1,29 @@
 package com.afollestad.inquiry;
 
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.afollestad.inquiry.callbacks.GetCallback;
+import com.afollestad.inquiry.callbacks.RowConsumer;
 import com.afollestad.inquiry.callbacks.RunCallback;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Aidan Follestad (afollestad)
@@ -21,6 +34,14 @@ public final class Query<RowType> {
     protected final static int INSERT = 2;
     protected final static int UPDATE = 3;
     protected final static int DELETE = 4;
+    protected final static int UPSERT = 5;
+    private final static String[] TYPE_NAMES = {null, "SELECT", "INSERT", "UPDATE", "DELETE", "UPSERT"};
+    // A sort order iterate() can seek on: a single column, optionally with a direction
+    private final static Pattern SORT_COLUMN = Pattern.compile("\\s*(\\w+)(?:\\s+(ASC|DESC))?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    private final static int DEFAULT_BATCH_SIZE = 1000;
+    private final static long DEFAULT_DEBOUNCE_MILLIS = 50;
 
     private final Inquiry mInquiry;
     private Uri mContentUri;
@@ -29,6 +50,8 @@ public final class Query<RowType> {
     private final Class<RowType> mRowClass;
     @Nullable
     private SQLiteHelper mDatabase;
+    @Nullable
+    private String mTableName;
 
     protected Query(@NonNull Inquiry inquiry, @NonNull Uri contentUri, int type, @Nullable Class<RowType> mClass) {
         mInquiry = inquiry;
@@ -43,18 +66,32 @@ public final class Query<RowType> {
         mInquiry = inquiry;
         mQueryType = type;
         mRowClass = mClass;
-        if (inquiry.mDatabaseName == null)
-            throw new IllegalStateException("Inquiry was not initialized with a database name, it can only use content providers in this configuration.");
-        mDatabase = new SQLiteHelper(inquiry.mContext, inquiry.mDatabaseName,
-                tableName, ClassRowConverter.getClassSchema(mClass));
+        mTableName = tableName;
+        final long start = System.nanoTime();
+        mDatabase = inquiry.getDatabase();
+        if (mClass != null)
+            mDatabase.registerTable(tableName, mClass);
+        mOpenNanos.set(System.nanoTime() - start);
     }
 
+    // Taken by whichever run reports metrics first, which may be on any executor thread
+    private final AtomicLong mOpenNanos = new AtomicLong();
+
     private String[] mProjection;
     private String mSelection;
     private String[] mSelectionArgs;
+    private Object[] mArgs;
+    private String mGroupBy;
     private String mSortOrder;
     private int mLimit;
     private RowType[] mValues;
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+    private int mConflictAlgorithm = SQLiteDatabase.CONFLICT_NONE;
+    private boolean mByPrimaryKey;
+    private String mPageColumn;
+    private boolean mPageDescending;
+    private int mPageSize;
+    private Page.Token mPageAfter;
 
     public Query<RowType> projection(@NonNull String[] columns) {
         mProjection = columns;
@@ -64,15 +101,40 @@ public final class Query<RowType> {
     public Query<RowType> where(@NonNull String selection, @Nullable Object... selectionArgs) {
         mSelection = selection;
         if (selectionArgs != null) {
+            mArgs = selectionArgs.clone();
             mSelectionArgs = new String[selectionArgs.length];
             for (int i = 0; i < selectionArgs.length; i++)
-                mSelectionArgs[i] = (String) selectionArgs[i];
+                mSelectionArgs[i] = toSelectionArg(selectionArgs[i]);
         } else {
+            mArgs = null;
             mSelectionArgs = null;
         }
         return this;
     }
 
+    /**
+     * Arguments other than prepared queries' are bound as text, SQLite converts them back for typed columns.
+     */
+    @Nullable
+    private static String toSelectionArg(@Nullable Object arg) {
+        if (arg == null)
+            return null;
+        else if (arg instanceof Boolean)
+            return (Boolean) arg ? "1" : "0";
+        else if (arg instanceof byte[])
+            throw new IllegalStateException("BLOB arguments are only supported by prepared queries, see prepare().");
+        return arg.toString();
+    }
+
+    /**
+     * Groups the rows of a select by one or more columns (GROUP BY), e.g. together with a projection of the
+     * grouped columns to get their distinct values. Only supported for database tables.
+     */
+    public Query<RowType> groupBy(@NonNull String columns) {
+        mGroupBy = columns;
+        return this;
+    }
+
     public Query<RowType> sort(@NonNull String sortOrder) {
         mSortOrder = sortOrder;
         return this;
@@ -89,41 +151,489 @@ public final class Query<RowType> {
         return this;
     }
 
+    /**
+     * Sets how many rows an insert into a database table commits per transaction. Large inserts are split into
+     * several transactions so they don't hold the write lock for their entire duration. Zero or less inserts
+     * every row in a single transaction.
+     */
+    public Query<RowType> batchSize(int rowsPerTransaction) {
+        mBatchSize = rowsPerTransaction;
+        return this;
+    }
+
+    /**
+     * Sets what an insert into a database table does when a row violates a UNIQUE or PRIMARY KEY constraint,
+     * e.g. SQLiteDatabase.CONFLICT_REPLACE to replace the existing row (INSERT OR REPLACE), or
+     * SQLiteDatabase.CONFLICT_IGNORE to skip the new one. Defaults to CONFLICT_NONE, which fails the insert.
+     */
+    public Query<RowType> onConflict(int conflictAlgorithm) {
+        if (conflictAlgorithm < SQLiteDatabase.CONFLICT_NONE || conflictAlgorithm > SQLiteDatabase.CONFLICT_REPLACE)
+            throw new IllegalArgumentException("Unknown conflict algorithm: " + conflictAlgorithm);
+        mConflictAlgorithm = conflictAlgorithm;
+        return this;
+    }
+
+    /**
+     * Makes an update write every row passed to {@link #values(Object[])} instead of just one, matching each
+     * row by its primary key rather than by a where() clause. All rows are updated with one compiled statement,
+     * committing one transaction per {@link #batchSize(int)} rows. A projection limits which columns are written.
+     */
+    public Query<RowType> byPrimaryKey() {
+        mByPrimaryKey = true;
+        return this;
+    }
+
+    /**
+     * Pages through results by the given column (ascending) instead of by the primary key.
+     * Rows whose value is null come first.
+     */
+    public Query<RowType> pageBy(@NonNull String column) {
+        return pageBy(column, false);
+    }
+
+    /**
+     * Pages through results by the given column instead of by the primary key. If the column isn't the primary key,
+     * the primary key (or the rowid, if the row class has none) is used to break ties between rows with equal
+     * values. Rows whose value is null come first when ascending and last when descending.
+     */
+    public Query<RowType> pageBy(@NonNull String column, boolean descending) {
+        mPageColumn = column;
+        mPageDescending = descending;
+        return this;
+    }
+
+    /**
+     * Sets how many rows {@link #page()} and {@link #pager()} return per page.
+     */
+    public Query<RowType> pageSize(int rows) {
+        mPageSize = rows;
+        return this;
+    }
+
+    /**
+     * Makes {@link #page()} start right after the position of a token from a previous page.
+     */
+    public Query<RowType> after(@Nullable Page.Token token) {
+        mPageAfter = token;
+        return this;
+    }
+
+    /**
+     * Makes {@link #page()} start right after a row that was previously loaded. Rows without a primary key
+     * don't know their position, continue from {@link Page#getNextToken()} instead.
+     */
+    public Query<RowType> after(@NonNull RowType lastRow) {
+        final String pageColumn = getPageColumn();
+        final String keyColumn = ClassRowConverter.getPrimaryKeyColumn(lastRow.getClass());
+        if (keyColumn == null)
+            throw new IllegalStateException(lastRow.getClass().getName() + " has no primary key, continue from Page.getNextToken() instead.");
+        mPageAfter = new Page.Token(ClassRowConverter.getColumnValue(lastRow, pageColumn),
+                keyColumn.equals(pageColumn) ? null : ClassRowConverter.getColumnValue(lastRow, keyColumn));
+        return this;
+    }
+
+    /**
+     * Loads a single page using keyset pagination: rather than skipping over previous rows with an OFFSET,
+     * the query seeks directly past the last row of the previous page. This replaces any sort order set on the query.
+     */
+    @NonNull
+    public Page<RowType> page() {
+        return loadPage(mPageAfter, null);
+    }
+
+    /**
+     * Returns a pager which walks every page, starting at {@link #after(Page.Token)} if it was set and loading
+     * each next page in the background.
+     */
+    @NonNull
+    public Pager<RowType> pager() {
+        return new Pager<>(this, mInquiry.getExecutor(), mPageAfter);
+    }
+
+    @NonNull
+    private String getPageColumn() {
+        if (mRowClass == null)
+            throw new IllegalStateException("Only queries with a row class can be paged.");
+        final String column = mPageColumn != null ? mPageColumn : ClassRowConverter.getPrimaryKeyColumn(mRowClass);
+        if (column == null)
+            throw new IllegalStateException(mRowClass.getName() + " has no primary key, use pageBy() to choose the column to page by.");
+        return column;
+    }
+
+    /**
+     * Seek values are bound with their own types: a float column holds the float widened to a double, which
+     * doesn't equal the double parsed from the float's text, so text arguments would match the last row again.
+     */
+    private static Object toSeekArg(@Nullable Object value) {
+        if (value == null)
+            throw new IllegalStateException("Can't page past a row whose primary key is null.");
+        return value;
+    }
+
+    private static String toArg(@Nullable Object value) {
+        if (value == null)
+            throw new IllegalStateException("Can't page past a row whose paging column is null.");
+        if (value instanceof Boolean)
+            return (Boolean) value ? "1" : "0";
+        return value.toString();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @SuppressWarnings("unchecked")
-    @Nullable
-    private RowType[] getInternal(int limit) {
-        if (mRowClass == null) return null;
-        if (mQueryType == SELECT) {
-            String sort = mSortOrder;
-            if (limit > -1) sort += String.format(" LIMIT %d", limit);
-            Cursor cursor;
-            if (mContentUri != null) {
-                cursor = mInquiry.mContext.getContentResolver().query(mContentUri, mProjection, mSelection, mSelectionArgs, mSortOrder);
-            } else {
-                if (mDatabase == null) throw new IllegalStateException("Database helper was null.");
-                cursor = mDatabase.query(mProjection, mSelection, mSelectionArgs, sort);
-            }
-            if (cursor != null) {
-                RowType[] results = null;
-                if (cursor.getCount() > 0) {
-                    results = (RowType[]) Array.newInstance(mRowClass, cursor.getCount());
-                    int index = 0;
-                    while (cursor.moveToNext()) {
-                        results[index] = ClassRowConverter.cursorToCls(cursor, mRowClass);
-                        index++;
+    @NonNull
+    Page<RowType> loadPage(@Nullable Page.Token after, @Nullable QueryTask task) {
+        if (mRowClass == null || mQueryType != SELECT || mDatabase == null)
+            throw new IllegalStateException("Only select queries against database tables can be paged.");
+        if (mPageSize <= 0)
+            throw new IllegalStateException("No page size was set, see pageSize(int).");
+        final String pageColumn = getPageColumn();
+        final String primaryKey = ClassRowConverter.getPrimaryKeyColumn(mRowClass);
+        // Without a primary key, the rowid still gives rows with equal values a stable order
+        final String keyColumn = primaryKey != null ? primaryKey : "rowid";
+        final boolean tieBreak = !keyColumn.equals(pageColumn);
+        final String direction = mPageDescending ? " DESC" : " ASC";
+
+        String selection = mSelection;
+        final List<Object> args = new ArrayList<>();
+        if (mSelectionArgs != null)
+            Collections.addAll(args, (Object[]) mSelectionArgs);
+        if (after != null) {
+            final String seek = buildSeek(pageColumn, tieBreak ? keyColumn : null, mPageDescending,
+                    after.sortValue, after.keyValue, args);
+            selection = selection != null ? "(" + selection + ") AND " + seek : seek;
+        }
+        String sort = pageColumn + direction;
+        if (tieBreak) sort += ", " + keyColumn + direction;
+
+        // The next token is read from the columns selected after the row's own, which the projection may not
+        // include. One extra row tells whether another page follows without a separate count query.
+        final String tokenColumns = tieBreak ? pageColumn + ", " + keyColumn : pageColumn;
+        final IdentityMap.Session<RowType> identities = newIdentitySession();
+        final CancellationSignal signal = task != null ? task.getCancellationSignal() : null;
+        final Cursor cursor = mDatabase.rawQuery(buildSelectSql(selection, sort, mPageSize + 1, tokenColumns),
+                args.toArray(), mTableName, signal);
+        final List<RowType> rows = new ArrayList<>(mPageSize);
+        boolean hasMore = false;
+        Page.Token next = null;
+        if (cursor != null) {
+            try {
+                final int rowColumns = cursor.getColumnCount() - (tieBreak ? 2 : 1);
+                final BindingPlan<RowType> plan = BindingPlan.get(cursor, mRowClass, rowColumns);
+                while (cursor.moveToNext()) {
+                    if (rows.size() == mPageSize) {
+                        hasMore = true;
+                        break;
                     }
+                    rows.add(readRow(cursor, plan, identities, null));
+                    next = new Page.Token(Utils.getValue(cursor, rowColumns),
+                            tieBreak ? Utils.getValue(cursor, rowColumns + 1) : null);
                 }
+            } finally {
                 cursor.close();
-                return results;
             }
         }
-        return null;
+        final RowType[] result = rows.toArray((RowType[]) Array.newInstance(mRowClass, rows.size()));
+        return new Page<>(result, hasMore, next);
+    }
+
+    /**
+     * Builds the condition which selects the rows sorted after a row, adding its arguments.
+     *
+     * @param keyColumn A unique column which breaks ties between rows with equal values, or null if the sort
+     *                  column is unique itself.
+     */
+    private static String buildSeek(@NonNull String column, @Nullable String keyColumn, boolean descending,
+                                    @Nullable Object sortValue, @Nullable Object keyValue, @NonNull List<Object> args) {
+        final String comparison = descending ? " < ?" : " > ?";
+        if (keyColumn == null) {
+            args.add(toSeekArg(sortValue));
+            return column + comparison;
+        } else if (sortValue == null) {
+            // Nulls sort first, so ascending reads continue with the remaining nulls and then every value
+            args.add(toSeekArg(keyValue));
+            return descending ? "(" + column + " IS NULL AND " + keyColumn + comparison + ")" :
+                    "((" + column + " IS NULL AND " + keyColumn + comparison + ") OR " + column + " IS NOT NULL)";
+        }
+        args.add(sortValue);
+        args.add(sortValue);
+        args.add(toSeekArg(keyValue));
+        // A comparison with null is never true, descending reads still have to reach the nulls at the end
+        return "(" + column + comparison + " OR (" + column + " = ? AND " + keyColumn + comparison + ")" +
+                (descending ? " OR " + column + " IS NULL)" : ")");
+    }
+
+    /**
+     * The columns a select reads: the projection if one was set, otherwise every column except lazy ones.
+     */
+    @Nullable
+    private String[] getReadProjection() {
+        if (mProjection != null && mProjection.length > 0)
+            return mProjection;
+        return mRowClass != null ? ClassRowConverter.getEagerProjection(mRowClass) : null;
+    }
+
+    @Nullable
+    private Cursor openCursor(int limit, @Nullable QueryTask task) {
+        return openCursor(mSelection, mSelectionArgs, mSortOrder, limit, task);
+    }
+
+    @Nullable
+    private Cursor openCursor(String selection, String[] selectionArgs, String sortOrder, int limit, @Nullable QueryTask task) {
+        return openCursor(getReadProjection(), selection, selectionArgs, sortOrder, limit, task);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Nullable
+    private Cursor openCursor(String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                              int limit, @Nullable QueryTask task) {
+        final CancellationSignal signal = task != null ? task.getCancellationSignal() : null;
+        if (mContentUri != null) {
+            if (mGroupBy != null)
+                throw new IllegalStateException("Grouping is only supported for database tables.");
+            final ContentResolver cr = mInquiry.mContext.getContentResolver();
+            // ContentResolver has no limit argument, but providers such as MediaStore and Contacts read this one
+            final Uri uri = limit > 0 ? mContentUri.buildUpon()
+                    .appendQueryParameter("limit", Integer.toString(limit)).build() : mContentUri;
+            if (signal != null)
+                return cr.query(uri, projection, selection, selectionArgs, sortOrder, signal);
+            return cr.query(uri, projection, selection, selectionArgs, sortOrder);
+        } else {
+            if (mDatabase == null) throw new IllegalStateException("Database helper was null.");
+            return mDatabase.query(mTableName, projection, selection, selectionArgs, mGroupBy, sortOrder,
+                    limit > -1 ? Integer.toString(limit) : null, signal);
+        }
+    }
+
+    /**
+     * Returns metrics to fill in for a run of this query, or null if no one is listening for them.
+     */
+    @Nullable
+    private QueryMetrics newMetrics(int limit) {
+        if (!mInquiry.hasQueryListeners()) return null;
+        final QueryMetrics metrics = new QueryMetrics(TYPE_NAMES[mQueryType],
+                mTableName != null ? mTableName : mContentUri.toString(), buildSql(limit));
+        // Opening the database and creating the table only happens once, attribute it to the first run
+        metrics.openNanos = mOpenNanos.getAndSet(0);
+        return metrics;
+    }
+
+    private void report(@Nullable QueryMetrics metrics) {
+        if (metrics != null)
+            mInquiry.reportQuery(metrics);
+    }
+
+    /**
+     * The statement's shape for metrics, without arguments.
+     */
+    private String buildSql(int limit) {
+        final String target = mTableName != null ? mTableName : mContentUri.toString();
+        switch (mQueryType) {
+            case SELECT:
+                return buildSelectSql(limit);
+            case INSERT:
+                return "INSERT INTO " + target;
+            case UPSERT:
+                return "UPSERT INTO " + target;
+            case UPDATE:
+                return "UPDATE " + target + (mByPrimaryKey ? " BY PRIMARY KEY" :
+                        mSelection != null ? " WHERE " + mSelection : "");
+            default:
+                return "DELETE FROM " + target + (mSelection != null ? " WHERE " + mSelection : "");
+        }
+    }
+
+    private String buildSelectSql(int limit) {
+        return buildSelectSql(mSelection, mSortOrder, limit);
+    }
+
+    private String buildSelectSql(@Nullable String selection, @Nullable String sortOrder, int limit) {
+        return buildSelectSql(selection, sortOrder, limit, null);
+    }
+
+    /**
+     * @param extraColumns Columns selected after the projection, for the query's own use.
+     */
+    private String buildSelectSql(@Nullable String selection, @Nullable String sortOrder, int limit,
+                                  @Nullable String extraColumns) {
+        final StringBuilder sql = new StringBuilder("SELECT ");
+        final String[] projection = getReadProjection();
+        if (projection != null) {
+            for (int i = 0; i < projection.length; i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(projection[i]);
+            }
+        } else {
+            sql.append('*');
+        }
+        if (extraColumns != null)
+            sql.append(", ").append(extraColumns);
+        sql.append(" FROM ").append(mTableName != null ? mTableName : mContentUri.toString());
+        if (selection != null)
+            sql.append(" WHERE ").append(selection);
+        if (mGroupBy != null)
+            sql.append(" GROUP BY ").append(mGroupBy);
+        if (sortOrder != null)
+            sql.append(" ORDER BY ").append(sortOrder);
+        if (limit > 0)
+            sql.append(" LIMIT ").append(limit);
+        return sql.toString();
+    }
+
+    @Nullable
+    private RowType[] getInternal(int limit, @Nullable QueryTask task, @Nullable QueryMetrics metrics) {
+        if (mRowClass == null || mQueryType != SELECT) return null;
+        final QueryCache cache = mInquiry.getQueryCache();
+        if (cache == null || mDatabase == null)
+            return queryInternal(limit, task, metrics);
+        final QueryCache.Key key = new QueryCache.Key(mDatabase.getDatabaseName(), mTableName, mRowClass,
+                getReadProjection(), mSelection, mSelectionArgs, mGroupBy, mSortOrder, limit);
+        final boolean[] cached = new boolean[1];
+        RowType[] results = cache.get(key, cached);
+        if (cached[0]) {
+            if (metrics != null) {
+                metrics.cacheHit = true;
+                metrics.rowCount = results != null ? results.length : 0;
+            }
+            return results;
+        }
+        final long generation = cache.getGeneration(key.database, key.table);
+        results = queryInternal(limit, task, metrics);
+        if (task == null || !task.isCancelled())
+            cache.put(key, generation, results);
+        return results;
+    }
+
+    @Nullable
+    private RowType[] queryInternal(int limit, @Nullable QueryTask task, @Nullable QueryMetrics metrics) {
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final IdentityMap.Session<RowType> identities = newIdentitySession();
+        final Cursor cursor = openCursor(limit, task);
+        if (cursor == null) return null;
+        return readRows(mInquiry, cursor, mRowClass, limit, mContentUri != null, identities, task, metrics, start);
+    }
+
+    /**
+     * Converts every row of a cursor, and closes it. Shared by queries and {@link PreparedQuery}.
+     *
+     * @param limit    The most rows to read, or -1 for all of them.
+     * @param prefetch Whether the cursor's windows may be fetched in the background, for content provider cursors.
+     * @param start    When the query started running, the time until the cursor is counted goes to its metrics.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    static <T> T[] readRows(@NonNull Inquiry inquiry, @NonNull Cursor cursor, @NonNull Class<T> rowClass, int limit,
+                            boolean prefetch, @Nullable IdentityMap.Session<T> identities, @Nullable QueryTask task,
+                            @Nullable QueryMetrics metrics, long start) {
+        T[] results = null;
+        boolean handedOff = false;
+        try {
+            // Cursors execute lazily, getCount() runs the query and fills the first window
+            int count = cursor.getCount();
+            // Content providers are free to ignore the limit
+            if (limit > 0 && count > limit)
+                count = limit;
+            if (metrics != null) {
+                metrics.executeNanos = System.nanoTime() - start;
+                metrics.rowCount = count;
+            }
+            if (prefetch && count >= PrefetchingReader.MIN_ROWS) {
+                // Fetches the provider's next cursor window while the current one is converted
+                final PrefetchingReader reader = PrefetchingReader.start(inquiry.getExecutor(), cursor, count);
+                if (reader != null) {
+                    handedOff = true;
+                    return reader.read(rowClass, task, metrics);
+                }
+            }
+            if (count > 0) {
+                results = (T[]) Array.newInstance(rowClass, count);
+                final BindingPlan<T> plan = BindingPlan.get(cursor, rowClass);
+                int index = 0;
+                long moved = metrics != null ? System.nanoTime() : 0;
+                while (index < count && cursor.moveToNext()) {
+                    if (task != null && task.isCancelled())
+                        return null;
+                    if (metrics != null) {
+                        final long read = System.nanoTime();
+                        metrics.iterateNanos += read - moved;
+                        results[index] = readRow(cursor, plan, identities, metrics);
+                        moved = System.nanoTime();
+                        metrics.convertNanos += moved - read;
+                    } else {
+                        results[index] = readRow(cursor, plan, identities, null);
+                    }
+                    index++;
+                }
+                // The provider may have returned fewer rows than it counted
+                if (index < count)
+                    results = Arrays.copyOf(results, index);
+            }
+        } finally {
+            if (!handedOff)
+                cursor.close();
+        }
+        return results;
+    }
+
+    /**
+     * Returns a session sharing the rows this select reads through the identity map, or null if they aren't
+     * shared: only full rows (no projection or grouping) of tracked database tables are.
+     */
+    @Nullable
+    private IdentityMap.Session<RowType> newIdentitySession() {
+        if (mDatabase == null || mRowClass == null)
+            return null;
+        return newIdentitySession(mInquiry, mDatabase, mTableName, mRowClass,
+                mGroupBy == null && (mProjection == null || mProjection.length == 0));
+    }
+
+    @Nullable
+    static <T> IdentityMap.Session<T> newIdentitySession(@NonNull Inquiry inquiry, @NonNull SQLiteHelper database,
+                                                         @NonNull String table, @NonNull Class<T> rowClass,
+                                                         boolean fullRows) {
+        final IdentityMap identities = fullRows ? inquiry.getIdentityMap() : null;
+        if (identities == null || !identities.tracks(table)) return null;
+        return identities.newSession(database.getDatabaseName(), table, rowClass);
+    }
+
+    private static <T> T readRow(Cursor cursor, BindingPlan<T> plan, @Nullable IdentityMap.Session<T> identities,
+                                 @Nullable QueryMetrics metrics) {
+        if (identities == null)
+            return plan.read(cursor, plan.newRow(), metrics);
+        T row = identities.get(cursor);
+        if (row == null) {
+            row = plan.read(cursor, plan.newRow(), metrics);
+            identities.put(row);
+        }
+        return row;
+    }
+
+    /**
+     * Evicts the rows a write changed from the identity map: the written rows if they were written by primary key,
+     * otherwise every row of the table.
+     */
+    private void evictIdentities() {
+        final IdentityMap identities = mInquiry.getIdentityMap();
+        if (mDatabase == null || identities == null || !identities.tracks(mTableName)) return;
+        final String database = mDatabase.getDatabaseName();
+        final String keyColumn = mValues != null && mValues.length > 0 ?
+                ClassRowConverter.getPrimaryKeyColumn(mValues[0].getClass()) : null;
+        if (keyColumn == null || mQueryType == DELETE || (mQueryType == UPDATE && !mByPrimaryKey)) {
+            identities.evictTable(database, mTableName);
+            return;
+        }
+        for (RowType row : mValues) {
+            final Object key = ClassRowConverter.getColumnValue(row, keyColumn);
+            if (key != null)
+                identities.evict(database, mTableName, key.toString());
+        }
     }
 
     @Nullable
     public RowType one() {
         if (mRowClass == null) return null;
-        RowType[] results = getInternal(1);
+        final QueryMetrics metrics = newMetrics(1);
+        RowType[] results = getInternal(1, null, metrics);
+        report(metrics);
         if (results == null || results.length == 0)
             return null;
         return results[0];
@@ -131,56 +641,452 @@ public final class Query<RowType> {
 
     @Nullable
     public RowType[] all() {
-        return getInternal(mLimit > 0 ? mLimit : -1);
+        return allInternal(null);
+    }
+
+    /**
+     * Compiles this select into a template which can be run many times with different arguments, see
+     * {@link PreparedQuery#bind(Object...)}. Arguments passed to where() are bound until others are.
+     * Only supported for database tables.
+     */
+    @NonNull
+    public PreparedQuery<RowType> prepare() {
+        if (mRowClass == null || mQueryType != SELECT || mDatabase == null)
+            throw new IllegalStateException("Only selects from database tables with a row class can be prepared.");
+        final boolean fullRows = mGroupBy == null && (mProjection == null || mProjection.length == 0);
+        return new PreparedQuery<>(mInquiry, mDatabase, mTableName, mRowClass,
+                buildSelectSql(mLimit > 0 ? mLimit : -1), buildSelectSql(1), fullRows, mArgs);
+    }
+
+    /**
+     * Opens a cursor over a single aggregate of the selected rows, ignoring the sort order and limit.
+     */
+    @NonNull
+    private Cursor openAggregate(@NonNull String expression) {
+        if (mQueryType != SELECT)
+            throw new IllegalStateException("Aggregates can only be taken of select queries.");
+        final Cursor cursor = openCursor(new String[]{expression}, mSelection, mSelectionArgs, null, -1, null);
+        if (cursor == null)
+            throw new IllegalStateException("The content provider returned no cursor for " + expression + ".");
+        return cursor;
+    }
+
+    /**
+     * Counts the selected rows (or groups, if {@link #groupBy(String)} is set) without reading any of them.
+     */
+    public long count() {
+        Cursor cursor;
+        try {
+            cursor = openAggregate("COUNT(*)");
+        } catch (IllegalArgumentException e) {
+            // Some content providers reject expressions in the projection, count their cursor's rows instead
+            if (mContentUri == null) throw e;
+            cursor = mInquiry.mContext.getContentResolver().query(mContentUri, null, mSelection, mSelectionArgs, null);
+            if (cursor == null) return 0;
+            try {
+                return cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+        try {
+            // Grouped counts have one row per group
+            if (mGroupBy != null) return cursor.getCount();
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns whether any row matches, stopping at the first one rather than counting them all.
+     */
+    public boolean exists() {
+        if (mContentUri != null)
+            return count() > 0;
+        if (mQueryType != SELECT)
+            throw new IllegalStateException("Only select queries can check whether rows exist.");
+        final Cursor cursor = openCursor(new String[]{"1"}, mSelection, mSelectionArgs, null, 1, null);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @NonNull
+    private Cursor openColumnAggregate(@NonNull String function, @NonNull String column) {
+        if (mGroupBy != null)
+            throw new IllegalStateException("Aggregates of grouped queries aren't supported, select a projection of them with all() instead.");
+        return openAggregate(function + "(" + column + ")");
+    }
+
+    @Nullable
+    private Double aggregate(@NonNull String function, @NonNull String column) {
+        final Cursor cursor = openColumnAggregate(function, column);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getDouble(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the aggregate as a long, which holds integers past 2^53 exactly where a double can't.
+     */
+    @Nullable
+    private Long aggregateLong(@NonNull String function, @NonNull String column) {
+        final Cursor cursor = openColumnAggregate(function, column);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Sums a column over the selected rows (SUM), or returns null if no row has a value for it.
+     */
+    @Nullable
+    public Double sum(@NonNull String column) {
+        return aggregate("SUM", column);
+    }
+
+    /**
+     * Sums an INTEGER column over the selected rows exactly, or returns null if no row has a value for it.
+     */
+    @Nullable
+    public Long sumLong(@NonNull String column) {
+        return aggregateLong("SUM", column);
+    }
+
+    /**
+     * Returns the smallest value of a column over the selected rows (MIN), or null if no row has a value for it.
+     */
+    @Nullable
+    public Double min(@NonNull String column) {
+        return aggregate("MIN", column);
+    }
+
+    /**
+     * Returns the smallest value of an INTEGER column over the selected rows, or null if no row has a value for it.
+     */
+    @Nullable
+    public Long minLong(@NonNull String column) {
+        return aggregateLong("MIN", column);
+    }
+
+    /**
+     * Returns the largest value of a column over the selected rows (MAX), or null if no row has a value for it.
+     */
+    @Nullable
+    public Double max(@NonNull String column) {
+        return aggregate("MAX", column);
+    }
+
+    /**
+     * Returns the largest value of an INTEGER column over the selected rows, or null if no row has a value for it.
+     */
+    @Nullable
+    public Long maxLong(@NonNull String column) {
+        return aggregateLong("MAX", column);
+    }
+
+    /**
+     * Averages a column over the selected rows (AVG), or returns null if no row has a value for it.
+     */
+    @Nullable
+    public Double avg(@NonNull String column) {
+        return aggregate("AVG", column);
+    }
+
+    /**
+     * Loads lazy columns into a row that was selected without them, looking the row up by its primary key.
+     * Other fields of the row are left alone.
+     *
+     * @param columns The columns to load, or none to load every lazy column.
+     * @return False if the row no longer exists, in which case nothing was loaded.
+     */
+    public boolean load(@NonNull RowType row, @Nullable String... columns) {
+        if (mRowClass == null || mQueryType != SELECT)
+            throw new IllegalStateException("Columns can only be loaded through select queries with a row class.");
+        if (columns == null || columns.length == 0)
+            columns = ClassRowConverter.getLazyColumns(mRowClass);
+        if (columns.length == 0) return true;
+        final String keyColumn = ClassRowConverter.getPrimaryKeyColumn(mRowClass);
+        if (keyColumn == null)
+            throw new IllegalStateException(mRowClass.getName() + " has no primary key, columns can't be loaded for its rows.");
+        final Object key = ClassRowConverter.getColumnValue(row, keyColumn);
+        if (key == null)
+            throw new IllegalStateException("Can't load columns for a row whose primary key is null.");
+
+        final Cursor cursor = openCursor(columns, keyColumn + " = ?", new String[]{toArg(key)}, null, 1, null);
+        if (cursor == null) return false;
+        try {
+            if (!cursor.moveToFirst()) return false;
+            BindingPlan.get(cursor, mRowClass).read(cursor, row);
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns SQLite's plan for this select, one line per step (EXPLAIN QUERY PLAN), e.g.
+     * "SEARCH TABLE people USING INDEX index_people_name (name=?)" when a lookup uses an index, or
+     * "SCAN TABLE people" when it reads every row. Only supported for database tables.
+     */
+    @NonNull
+    public List<String> explain() {
+        if (mDatabase == null)
+            throw new IllegalStateException("Query plans are only available for database tables.");
+        return mDatabase.explain(buildSelectSql(mLimit), mSelectionArgs);
+    }
+
+    /**
+     * Streams the results, converting each row only when it's reached instead of loading them all into an array.
+     * Database tables are read in growing chunks, so the first row doesn't wait for the whole result to be counted.
+     * Like a cursor moving between windows, a chunk sees writes made since the previous one. Unless the sort
+     * order is more than a single column, each chunk seeks past the last row read, so rows inserted or deleted
+     * meanwhile don't shift rows between chunks.
+     */
+    @NonNull
+    public RowIterator<RowType> iterate() {
+        return iterate(false);
+    }
+
+    /**
+     * Streams the results, optionally filling the same row instance for every row rather than creating
+     * a new one each time. Reused rows must not be held onto past the next call to next().
+     */
+    @NonNull
+    public RowIterator<RowType> iterate(boolean reuseRow) {
+        if (mRowClass == null || mQueryType != SELECT)
+            throw new IllegalStateException("Only select queries with a row class can be iterated.");
+        if (mDatabase == null || mGroupBy != null)
+            return new RowIterator<>(openCursor(mLimit > 0 ? mLimit : -1, null), mRowClass, reuseRow);
+        final int limit = mLimit > 0 ? mLimit : -1;
+        final Matcher sortColumn = SORT_COLUMN.matcher(mSortOrder != null ? mSortOrder : "rowid");
+        if (sortColumn.matches())
+            return new RowIterator<>(new SeekingChunks(sortColumn.group(1), sortColumn.group(2) != null &&
+                    sortColumn.group(2).equalsIgnoreCase("DESC")), limit, mRowClass, reuseRow);
+
+        // Chunks need a stable order to line up, rowid breaks ties between rows the sort order considers equal
+        final String sortOrder = mSortOrder + ", rowid";
+        final String[] projection = getReadProjection();
+        return new RowIterator<>(new RowIterator.ChunkSource() {
+            @Override
+            public int getExtraColumns() {
+                return 0;
+            }
+
+            @Override
+            public Cursor open(int offset, int limit, @Nullable Cursor last) {
+                return mDatabase.query(mTableName, projection, mSelection, mSelectionArgs, null, sortOrder,
+                        offset + ", " + limit, null);
+            }
+        }, limit, mRowClass, reuseRow);
+    }
+
+    /**
+     * Reads chunks sorted by a single column, each starting right after the last row of the previous one. Skipping
+     * rows with an OFFSET would step through every one of them again for each chunk.
+     */
+    private final class SeekingChunks implements RowIterator.ChunkSource {
+
+        private final String mColumn;
+        private final boolean mDescending;
+        // Rows with equal values are read in rowid order, unless the column is the rowid
+        private final boolean mTieBreak;
+
+        SeekingChunks(@NonNull String column, boolean descending) {
+            mColumn = column;
+            mDescending = descending;
+            mTieBreak = !column.equalsIgnoreCase("rowid");
+        }
+
+        @Override
+        public int getExtraColumns() {
+            return mTieBreak ? 2 : 1;
+        }
+
+        @Override
+        public Cursor open(int offset, int limit, @Nullable Cursor last) {
+            String selection = mSelection;
+            final List<Object> args = new ArrayList<>();
+            if (mSelectionArgs != null)
+                Collections.addAll(args, (Object[]) mSelectionArgs);
+            if (last != null) {
+                final int column = last.getColumnCount() - getExtraColumns();
+                final String seek = buildSeek(mColumn, mTieBreak ? "rowid" : null, mDescending,
+                        Utils.getValue(last, column), mTieBreak ? Utils.getValue(last, column + 1) : null, args);
+                selection = selection != null ? "(" + selection + ") AND " + seek : seek;
+            }
+            final String direction = mDescending ? " DESC" : " ASC";
+            final String sort = mTieBreak ? mColumn + direction + ", rowid" + direction : mColumn + direction;
+            return mDatabase.rawQuery(buildSelectSql(selection, sort, limit,
+                    mTieBreak ? mColumn + ", rowid" : mColumn), args.toArray(), mTableName, null);
+        }
+    }
+
+    public void forEach(@NonNull RowConsumer<RowType> consumer) {
+        forEach(consumer, false);
     }
 
-    public void all(@NonNull final GetCallback<RowType> callback) {
-        new Thread(new Runnable() {
+    public void forEach(@NonNull RowConsumer<RowType> consumer, boolean reuseRow) {
+        final RowIterator<RowType> iterator = iterate(reuseRow);
+        try {
+            while (iterator.hasNext())
+                consumer.accept(iterator.next());
+        } finally {
+            iterator.close();
+        }
+    }
+
+    boolean isSelect() {
+        return mQueryType == SELECT;
+    }
+
+    /**
+     * Loads every row like {@link #all()}, stopping early if the task is cancelled.
+     */
+    @Nullable
+    RowType[] allInternal(@Nullable QueryTask task) {
+        final int limit = mLimit > 0 ? mLimit : -1;
+        final QueryMetrics metrics = newMetrics(limit);
+        final RowType[] results = getInternal(limit, task, metrics);
+        report(metrics);
+        return results;
+    }
+
+    /**
+     * Runs the query on the read lane of the {@link QueryExecutor}, delivering results on the main thread.
+     */
+    @NonNull
+    public QueryTask all(@NonNull final GetCallback<RowType> callback) {
+        final QueryTask task = new QueryTask();
+        mInquiry.getExecutor().executeRead(task, new Runnable() {
             @Override
             public void run() {
-                final RowType[] results = all();
-                if (mInquiry.mHandler == null) return;
-                mInquiry.mHandler.post(new Runnable() {
+                final int limit = mLimit > 0 ? mLimit : -1;
+                final QueryMetrics metrics = newMetrics(limit);
+                final RowType[] results;
+                try {
+                    results = getInternal(limit, task, metrics);
+                } catch (RuntimeException e) {
+                    // Cancellation surfaces as an exception from SQLite or the content provider
+                    if (task.isCancelled()) return;
+                    throw e;
+                }
+                final long ready = metrics != null ? System.nanoTime() : 0;
+                deliver(task, new Runnable() {
                     @Override
                     public void run() {
                         callback.result(results);
+                        if (metrics != null) {
+                            metrics.dispatchNanos = System.nanoTime() - ready;
+                            report(metrics);
+                        }
                     }
                 });
             }
-        }).start();
+        });
+        return task;
+    }
+
+    /**
+     * Runs the query now and again whenever its table changes, delivering every result on the main thread,
+     * until the returned observer is stopped. Re-queries are debounced by 50ms.
+     */
+    @NonNull
+    public QueryObserver<RowType> observe(@NonNull GetCallback<RowType> callback) {
+        return observe(callback, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Runs the query now and again whenever its table changes, delivering every result on the main thread,
+     * until the returned observer is stopped. A burst of changes results in a single re-query once no change
+     * has arrived for debounceMillis.
+     */
+    @NonNull
+    public QueryObserver<RowType> observe(@NonNull GetCallback<RowType> callback, long debounceMillis) {
+        if (mQueryType != SELECT)
+            throw new IllegalStateException("Only select queries can be observed.");
+        final QueryObserver<RowType> observer = new QueryObserver<>(mInquiry, this, callback, debounceMillis,
+                mDatabase != null ? mDatabase.getDatabaseName() : null, mTableName, mContentUri);
+        observer.start();
+        return observer;
+    }
+
+    private void deliver(final QueryTask task, final Runnable result) {
+        if (task.isCancelled() || mInquiry.mHandler == null) return;
+        mInquiry.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!task.isCancelled())
+                    result.run();
+            }
+        });
     }
 
     public long run() {
         if (mQueryType != DELETE && (mValues == null || mValues.length == 0))
             throw new IllegalStateException("No values were provided for this query to run.");
+        final QueryMetrics metrics = newMetrics(-1);
+        final long start = metrics != null ? System.nanoTime() : 0;
+        if (mDatabase == null || mQueryType == SELECT)
+            return timed(runInternal(), metrics, start);
+        try {
+            return timed(runInternal(), metrics, start);
+        } finally {
+            // Even a failed write may have committed some batches
+            evictIdentities();
+            mInquiry.onTableChanged(mDatabase.getDatabaseName(), mTableName);
+        }
+    }
+
+    private long timed(long changed, @Nullable QueryMetrics metrics, long start) {
+        if (metrics != null) {
+            metrics.executeNanos = System.nanoTime() - start;
+            metrics.rowCount = changed;
+            report(metrics);
+        }
+        return changed;
+    }
+
+    private long runInternal() {
         final ContentResolver cr = mInquiry.mContext.getContentResolver();
         switch (mQueryType) {
             case INSERT:
                 if (mDatabase != null) {
-                    long inserted = 0;
-                    for (Object val : mValues)
-                        inserted += mDatabase.insert(ClassRowConverter.clsToVals(val, null));
-                    return inserted;
+                    return mDatabase.insert(mTableName, mValues, mBatchSize, mConflictAlgorithm);
                 } else if (mContentUri != null) {
                     if (mValues.length == 1) {
                         cr.insert(mContentUri, ClassRowConverter.clsToVals(mValues[0], null));
                         return 1;
                     } else
-                        return cr.bulkInsert(mContentUri, ClassRowConverter.clsArrayToVals(mValues, null));
+                        return bulkInsert(cr, ClassRowConverter.clsArrayToVals(mValues, null));
                 } else
                     throw new IllegalStateException("Database helper was null.");
             case UPDATE: {
-                final ContentValues values = ClassRowConverter.clsToVals(mValues[mValues.length - 1], mProjection);
+                if (mByPrimaryKey)
+                    return updateByPrimaryKey(cr);
+                final ContentValues values = ClassRowConverter.clsToVals(mValues[mValues.length - 1], mProjection,
+                        mDatabase != null);
                 if (mDatabase != null)
-                    return mDatabase.update(values, mSelection, mSelectionArgs);
+                    return mDatabase.update(mTableName, values, mSelection, mSelectionArgs);
                 else if (mContentUri != null)
                     return cr.update(mContentUri, values, mSelection, mSelectionArgs);
                 else
                     throw new IllegalStateException("Database helper was null.");
             }
+            case UPSERT:
+                if (mDatabase == null)
+                    throw new IllegalStateException("Upserts are only supported on database tables.");
+                return mDatabase.upsert(mTableName, mValues, mBatchSize);
             case DELETE: {
                 if (mDatabase != null)
-                    return mDatabase.delete(mSelection, mSelectionArgs);
+                    return mDatabase.delete(mTableName, mSelection, mSelectionArgs);
                 else if (mContentUri != null)
                     return cr.delete(mContentUri, mSelection, mSelectionArgs);
                 else
@@ -190,19 +1096,111 @@ public final class Query<RowType> {
         return -1;
     }
 
-    public void run(@NonNull final RunCallback callback) {
-        new Thread(new Runnable() {
+    /**
+     * Inserts into a content provider with as few bulkInsert() calls as possible, each one small enough to fit
+     * in a binder transaction.
+     */
+    private long bulkInsert(ContentResolver cr, ContentValues[] values) {
+        long inserted = 0;
+        int start = 0;
+        int bytes = 0;
+        for (int i = 0; i < values.length; i++) {
+            final int size = ProviderBatch.estimateSize(values[i]);
+            if (i > start && bytes + size > ProviderBatch.MAX_TRANSACTION_BYTES) {
+                inserted += cr.bulkInsert(mContentUri, Arrays.copyOfRange(values, start, i));
+                start = i;
+                bytes = 0;
+            }
+            bytes += size;
+        }
+        if (start == 0)
+            return cr.bulkInsert(mContentUri, values);
+        return inserted + cr.bulkInsert(mContentUri, Arrays.copyOfRange(values, start, values.length));
+    }
+
+    @NonNull
+    String getProviderAuthority() {
+        if (mContentUri == null || mQueryType == SELECT)
+            throw new IllegalStateException("Only inserts, updates and deletes against content:// URIs can be batched.");
+        return mContentUri.getAuthority();
+    }
+
+    /**
+     * Adds the operations this query performs to a content provider batch.
+     */
+    void addOperations(@NonNull ProviderBatch batch) {
+        if (mQueryType != DELETE && (mValues == null || mValues.length == 0))
+            throw new IllegalStateException("No values were provided for this query to run.");
+        switch (mQueryType) {
+            case INSERT:
+                for (RowType row : mValues) {
+                    final ContentValues values = ClassRowConverter.clsToVals(row, null);
+                    batch.addOperation(ContentProviderOperation.newInsert(mContentUri).withValues(values), values);
+                }
+                break;
+            case UPDATE:
+                if (mByPrimaryKey) {
+                    final String keyColumn = ClassRowConverter.getPrimaryKeyColumn(mValues[0].getClass());
+                    if (keyColumn == null)
+                        throw new IllegalStateException("Class " + mValues[0].getClass().getName() + " has no primary key column to update by.");
+                    for (RowType row : mValues) {
+                        final Object key = ClassRowConverter.getColumnValue(row, keyColumn);
+                        final ContentValues values = ClassRowConverter.clsToVals(row, mProjection);
+                        batch.addOperation(ContentProviderOperation.newUpdate(mContentUri).withValues(values)
+                                .withSelection(keyColumn + " = ?", new String[]{key != null ? key.toString() : null}), values);
+                    }
+                } else {
+                    final ContentValues values = ClassRowConverter.clsToVals(mValues[mValues.length - 1], mProjection);
+                    batch.addOperation(ContentProviderOperation.newUpdate(mContentUri).withValues(values)
+                            .withSelection(mSelection, mSelectionArgs), values);
+                }
+                break;
+            case DELETE:
+                batch.addOperation(ContentProviderOperation.newDelete(mContentUri)
+                        .withSelection(mSelection, mSelectionArgs), null);
+                break;
+            default:
+                throw new IllegalStateException("Upserts can't be sent to content providers.");
+        }
+    }
+
+    private long updateByPrimaryKey(ContentResolver cr) {
+        if (mDatabase != null)
+            return mDatabase.update(mTableName, mValues, mProjection, mBatchSize);
+        else if (mContentUri == null)
+            throw new IllegalStateException("Database helper was null.");
+        // Content providers don't expose transactions, so each row is its own update
+        final String keyColumn = ClassRowConverter.getPrimaryKeyColumn(mValues[0].getClass());
+        if (keyColumn == null)
+            throw new IllegalStateException("Class " + mValues[0].getClass().getName() + " has no primary key column to update by.");
+        final String selection = keyColumn + " = ?";
+        long changed = 0;
+        for (RowType row : mValues) {
+            final Object key = ClassRowConverter.getColumnValue(row, keyColumn);
+            changed += cr.update(mContentUri, ClassRowConverter.clsToVals(row, mProjection), selection,
+                    new String[]{key != null ? key.toString() : null});
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the query on the write lane of the {@link QueryExecutor}, delivering the result on the main thread.
+     */
+    @NonNull
+    public QueryTask run(@NonNull final RunCallback callback) {
+        final QueryTask task = new QueryTask();
+        mInquiry.getExecutor().executeWrite(task, new Runnable() {
             @Override
             public void run() {
                 final long changed = Query.this.run();
-                if (mInquiry.mHandler == null) return;
-                mInquiry.mHandler.post(new Runnable() {
+                deliver(task, new Runnable() {
                     @Override
                     public void run() {
                         callback.result(changed);
                     }
                 });
             }
-        }).start();
+        });
+        return task;
     }
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded, least recently used cache of converted select results, so running the same query again
+ * returns rows from memory instead of going back to SQLite. Results are keyed by everything that shapes them
+ * (database, table, row class, projection, selection, arguments, grouping, sort order and limit), and every
+ * write made through {@link Query#run()} invalidates the cached results of the table it changed.
+ * <p/>
+ * Cached rows are shared between everyone who runs the same query; treat them as read-only.
+ * Enable it with {@link Inquiry#setQueryCache(QueryCache)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class QueryCache {
+
+    private static final Object NO_ROWS = new Object();
+
+    private final LruCache<Key, Object> mCache;
+    // Bumped by every write, so a read which overlapped a write doesn't cache what it saw before the write
+    private final Map<String, Long> mGenerations = new HashMap<>();
+    private long mInvalidationCount;
+
+    /**
+     * @param maxResults How many query results are kept; the least recently used ones are evicted beyond that.
+     */
+    public QueryCache(int maxResults) {
+        if (maxResults < 1)
+            throw new IllegalArgumentException("The cache must hold at least one result.");
+        mCache = new LruCache<>(maxResults);
+    }
+
+    private static String tableKey(String database, String table) {
+        return database + '/' + table;
+    }
+
+    long getGeneration(@NonNull String database, @NonNull String table) {
+        synchronized (mGenerations) {
+            final Long generation = mGenerations.get(tableKey(database, table));
+            return generation != null ? generation : 0;
+        }
+    }
+
+    /**
+     * Returns the cached result for a query, or null if it isn't cached. The returned array is a copy.
+     *
+     * @param cached Set to true if the result came from the cache, since a cached result may be null (no rows).
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    <T> T[] get(@NonNull Key key, @NonNull boolean[] cached) {
+        final Object result = mCache.get(key);
+        cached[0] = result != null;
+        if (result == null || result == NO_ROWS) return null;
+        return ((T[]) result).clone();
+    }
+
+    /**
+     * Caches a result, unless the table was written to since generation was read, in which case it might be stale.
+     */
+    void put(@NonNull Key key, long generation, @Nullable Object[] rows) {
+        synchronized (mGenerations) {
+            if (getGeneration(key.database, key.table) != generation) return;
+            mCache.put(key, rows != null ? rows.clone() : NO_ROWS);
+        }
+    }
+
+    /**
+     * Drops every cached result for a table.
+     */
+    public void invalidate(@NonNull String database, @NonNull String table) {
+        synchronized (mGenerations) {
+            final String tableKey = tableKey(database, table);
+            mGenerations.put(tableKey, getGeneration(database, table) + 1);
+            mInvalidationCount++;
+            for (Key key : mCache.snapshot().keySet()) {
+                if (key.database.equals(database) && key.table.equals(table))
+                    mCache.remove(key);
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (mGenerations) {
+            mGenerations.clear();
+            mCache.evictAll();
+        }
+    }
+
+    /**
+     * The number of queries answered from the cache.
+     */
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    /**
+     * The number of queries that had to go to the database.
+     */
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * The number of results dropped to make room for newer ones.
+     */
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * The number of times a write invalidated a table's results.
+     */
+    public long getInvalidationCount() {
+        synchronized (mGenerations) {
+            return mInvalidationCount;
+        }
+    }
+
+    public int size() {
+        return mCache.size();
+    }
+
+    static final class Key {
+
+        final String database;
+        final String table;
+        private final Class<?> mRowClass;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mGroupBy;
+        private final String mSortOrder;
+        private final int mLimit;
+        private final int mHash;
+
+        Key(String database, String table, Class<?> rowClass, String[] projection, String selection,
+            String[] selectionArgs, String groupBy, String sortOrder, int limit) {
+            this.database = database;
+            this.table = table;
+            mRowClass = rowClass;
+            mProjection = projection;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mGroupBy = groupBy;
+            mSortOrder = sortOrder;
+            mLimit = limit;
+            int hash = database.hashCode();
+            hash = 31 * hash + table.hashCode();
+            hash = 31 * hash + rowClass.hashCode();
+            hash = 31 * hash + Arrays.hashCode(projection);
+            hash = 31 * hash + (selection != null ? selection.hashCode() : 0);
+            hash = 31 * hash + Arrays.hashCode(selectionArgs);
+            hash = 31 * hash + (groupBy != null ? groupBy.hashCode() : 0);
+            hash = 31 * hash + (sortOrder != null ? sortOrder.hashCode() : 0);
+            mHash = 31 * hash + limit;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return mHash == other.mHash && mLimit == other.mLimit && mRowClass == other.mRowClass &&
+                    database.equals(other.database) && table.equals(other.table) &&
+                    Arrays.equals(mProjection, other.mProjection) && equal(mSelection, other.mSelection) &&
+                    Arrays.equals(mSelectionArgs, other.mSelectionArgs) && equal(mGroupBy, other.mGroupBy) &&
+                    equal(mSortOrder, other.mSortOrder);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+}
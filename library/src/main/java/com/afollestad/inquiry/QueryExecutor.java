@@ -0,0 +1,190 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs asynchronous queries on a bounded set of threads. Reads and writes use separate lanes to match SQLite's
+ * locking model: any number of readers (up to the configured thread count), but only a single writer at a time,
+ * so queued writes never contend with each other for the database lock.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class QueryExecutor {
+
+    // SQLite's default pool of WAL read connections holds 4, more reader threads would just wait for one
+    private static final int MAX_DEFAULT_READ_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor mReadPool;
+    private final ThreadPoolExecutor mWritePool;
+    // Fetches content provider cursor windows ahead of the reads converting them
+    private final ThreadPoolExecutor mPrefetchPool;
+    private final AtomicLong mStartedCount = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+
+    /**
+     * Uses one read thread per CPU core, between 2 and 4.
+     */
+    public QueryExecutor() {
+        this(Math.max(2, Math.min(MAX_DEFAULT_READ_THREADS, Runtime.getRuntime().availableProcessors())));
+    }
+
+    public QueryExecutor(int readThreads) {
+        if (readThreads < 1)
+            throw new IllegalArgumentException("At least one read thread is required.");
+        mReadPool = createPool("Inquiry-read", readThreads);
+        mWritePool = createPool("Inquiry-write", 1);
+        mPrefetchPool = createPool("Inquiry-prefetch", readThreads);
+    }
+
+    private static ThreadPoolExecutor createPool(final String name, int threads) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                return new Thread(r, name + "-" + mCount.incrementAndGet());
+            }
+        });
+        // Idle lanes don't keep threads alive
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    void executeRead(@NonNull QueryTask task, @NonNull Runnable work) {
+        final FutureTask<Void> future = new RethrowingTask(timed(work));
+        task.setFuture(future);
+        mReadPool.execute(future);
+    }
+
+    void executeWrite(@NonNull QueryTask task, @NonNull Runnable work) {
+        final FutureTask<Void> future = new RethrowingTask(timed(work));
+        task.setFuture(future);
+        mWritePool.execute(future);
+    }
+
+    /**
+     * Runs work alongside a read, without counting it as a query in the wait time metrics.
+     */
+    void executePrefetch(@NonNull Runnable work) {
+        mPrefetchPool.execute(work);
+    }
+
+    <T> Future<T> submitRead(@NonNull final Callable<T> work) {
+        final FutureTask<T> future = new FutureTask<>(work);
+        mReadPool.execute(timed(future));
+        return future;
+    }
+
+    private Runnable timed(final Runnable work) {
+        final long queuedAt = System.nanoTime();
+        return new Runnable() {
+            @Override
+            public void run() {
+                final long waited = System.nanoTime() - queuedAt;
+                mStartedCount.incrementAndGet();
+                mTotalWaitNanos.addAndGet(waited);
+                long max;
+                do {
+                    max = mMaxWaitNanos.get();
+                } while (waited > max && !mMaxWaitNanos.compareAndSet(max, waited));
+                work.run();
+            }
+        };
+    }
+
+    /**
+     * Work whose result nobody waits for. A plain FutureTask would keep an exception the work throws to itself,
+     * so the callback would silently never be invoked; this one rethrows it on the pool thread instead, where it
+     * reaches the thread's uncaught exception handler (crashing the app, like an exception on any other thread).
+     */
+    private static final class RethrowingTask extends FutureTask<Void> {
+
+        RethrowingTask(Runnable work) {
+            super(work, null);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) return;
+            try {
+                get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                else if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * The number of reads waiting for a free thread.
+     */
+    public int getQueuedReads() {
+        return mReadPool.getQueue().size();
+    }
+
+    /**
+     * The number of writes waiting for the write lane.
+     */
+    public int getQueuedWrites() {
+        return mWritePool.getQueue().size();
+    }
+
+    public int getActiveReads() {
+        return mReadPool.getActiveCount();
+    }
+
+    public int getActiveWrites() {
+        return mWritePool.getActiveCount();
+    }
+
+    /**
+     * The number of queries that have started executing so far.
+     */
+    public long getStartedCount() {
+        return mStartedCount.get();
+    }
+
+    /**
+     * The average time queries spent queued before starting, in milliseconds.
+     */
+    public double getAverageWaitMillis() {
+        final long started = mStartedCount.get();
+        return started == 0 ? 0 : mTotalWaitNanos.get() / (double) started / 1000000d;
+    }
+
+    /**
+     * The longest time a query has spent queued before starting, in milliseconds.
+     */
+    public double getMaxWaitMillis() {
+        return mMaxWaitNanos.get() / 1000000d;
+    }
+
+    /**
+     * Stops accepting new queries. Queries that were already submitted still run.
+     */
+    public void shutdown() {
+        mReadPool.shutdown();
+        mWritePool.shutdown();
+        mPrefetchPool.shutdown();
+    }
+}
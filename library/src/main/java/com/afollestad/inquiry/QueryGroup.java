@@ -0,0 +1,153 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.support.annotation.Nullable;
+
+import com.afollestad.inquiry.callbacks.GroupCallback;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A set of independent select queries which run concurrently on the read lane of the {@link QueryExecutor},
+ * e.g. to load several tables at startup. Reads only run in parallel against a database if write-ahead logging
+ * is enabled (see {@link DatabaseConfig.Builder#writeAheadLogging(boolean)}), which gives SQLite a pool of
+ * read connections; otherwise they queue for its single connection. Created with {@link Inquiry#group(Query[])}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class QueryGroup {
+
+    private static final String TAG = "Inquiry";
+
+    private final Inquiry mInquiry;
+    private final Query<?>[] mQueries;
+
+    QueryGroup(@NonNull Inquiry inquiry, @NonNull Query<?>[] queries) {
+        if (queries.length == 0)
+            throw new IllegalArgumentException("A query group needs at least one query.");
+        for (Query<?> query : queries) {
+            if (!query.isSelect())
+                throw new IllegalArgumentException("Only select queries can be grouped.");
+        }
+        mInquiry = inquiry;
+        mQueries = queries.clone();
+    }
+
+    /**
+     * Runs every query and waits for all of them to finish. The calling thread runs one of the queries itself
+     * rather than sitting idle. If a query fails, its exception is rethrown once the others have finished.
+     */
+    @NonNull
+    public Results all() {
+        final QueryExecutor executor = mInquiry.getExecutor();
+        final Results results = new Results();
+        @SuppressWarnings("unchecked")
+        final Future<Object[]>[] futures = new Future[mQueries.length - 1];
+        for (int i = 0; i < futures.length; i++) {
+            final Query<?> query = mQueries[i];
+            futures[i] = executor.submitRead(new Callable<Object[]>() {
+                @Override
+                public Object[] call() throws Exception {
+                    return query.allInternal(null);
+                }
+            });
+        }
+        RuntimeException failure = null;
+        final Query<?> last = mQueries[mQueries.length - 1];
+        try {
+            results.put(last, last.allInternal(null));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (int i = 0; i < futures.length; i++) {
+            try {
+                results.put(mQueries[i], futures[i].get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for grouped queries.", e);
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause() instanceof RuntimeException ?
+                            (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return results;
+    }
+
+    /**
+     * Runs every query concurrently, delivering the combined results on the main thread once the last one
+     * finishes. A query that fails has null results and its exception is logged. Cancelling the returned task
+     * cancels every query.
+     */
+    @NonNull
+    public QueryTask all(@NonNull final GroupCallback callback) {
+        final Results results = new Results();
+        final AtomicInteger remaining = new AtomicInteger(mQueries.length);
+        final QueryTask[] tasks = new QueryTask[mQueries.length];
+        for (int i = 0; i < tasks.length; i++)
+            tasks[i] = new QueryTask();
+        final QueryTask groupTask = new QueryTask(tasks);
+        final QueryExecutor executor = mInquiry.getExecutor();
+        for (int i = 0; i < mQueries.length; i++) {
+            final Query<?> query = mQueries[i];
+            final QueryTask task = tasks[i];
+            executor.executeRead(task, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        results.put(query, query.allInternal(task));
+                    } catch (RuntimeException e) {
+                        results.put(query, null);
+                        // Cancellation surfaces as an exception from SQLite or the content provider
+                        if (!task.isCancelled())
+                            Log.w(TAG, "A grouped query failed: " + e.getMessage(), e);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0)
+                            deliver(groupTask, callback, results);
+                    }
+                }
+            });
+        }
+        return groupTask;
+    }
+
+    private void deliver(final QueryTask task, final GroupCallback callback, final Results results) {
+        if (task.isCancelled() || mInquiry.mHandler == null) return;
+        mInquiry.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!task.isCancelled())
+                    callback.result(results);
+            }
+        });
+    }
+
+    /**
+     * The results of each query in a group.
+     */
+    public static final class Results {
+
+        private final Map<Query<?>, Object[]> mResults = new IdentityHashMap<>();
+
+        synchronized void put(Query<?> query, Object[] rows) {
+            mResults.put(query, rows);
+        }
+
+        /**
+         * Returns the rows one of the group's queries loaded, or null if it found none.
+         */
+        @SuppressWarnings("unchecked")
+        @Nullable
+        public synchronized <RowType> RowType[] get(@NonNull Query<RowType> query) {
+            return (RowType[]) mResults.get(query);
+        }
+    }
+}
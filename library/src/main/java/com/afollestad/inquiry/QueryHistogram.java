@@ -0,0 +1,80 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Aggregates query durations into exponential buckets, the first holding queries under 0.25ms and each next
+ * one twice as wide, so percentiles can be read without keeping every sample.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class QueryHistogram implements QueryListener {
+
+    private static final long FIRST_BUCKET_NANOS = 250000L;
+    private static final int BUCKET_COUNT = 20;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    @Override
+    public void onQuery(@NonNull QueryMetrics metrics) {
+        mBuckets.incrementAndGet(bucketFor(metrics.getTotalNanos()));
+    }
+
+    private static int bucketFor(long nanos) {
+        int bucket = 0;
+        long upper = FIRST_BUCKET_NANOS;
+        while (nanos >= upper && bucket < BUCKET_COUNT - 1) {
+            upper <<= 1;
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * The upper bound of a bucket in milliseconds. The last bucket is unbounded.
+     */
+    public static double getBucketUpperMillis(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Double.POSITIVE_INFINITY : (FIRST_BUCKET_NANOS << bucket) / 1e6;
+    }
+
+    @NonNull
+    public long[] getBucketCounts() {
+        final long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            counts[i] = mBuckets.get(i);
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            count += mBuckets.get(i);
+        return count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile (0 to 100), in milliseconds.
+     */
+    public double getPercentileMillis(double percentile) {
+        final long[] counts = getBucketCounts();
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        if (total == 0) return 0;
+        final long rank = (long) Math.ceil(total * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0)
+                return getBucketUpperMillis(i);
+        }
+        return getBucketUpperMillis(BUCKET_COUNT - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            mBuckets.set(i, 0);
+    }
+}
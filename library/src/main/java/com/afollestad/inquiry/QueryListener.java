@@ -0,0 +1,16 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives timings and counts for every query Inquiry runs, registered with
+ * {@link Inquiry#addQueryListener(QueryListener)}. Called on the thread that ran the query (or, for queries with a
+ * callback, on the main thread once the callback returns), so implementations should be quick and thread-safe.
+ * {@link SlowQueryLogger} and {@link QueryHistogram} are built in.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface QueryListener {
+
+    void onQuery(@NonNull QueryMetrics metrics);
+}
@@ -0,0 +1,125 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Where the time of a single query went. Phases that don't apply to a query are 0.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class QueryMetrics {
+
+    private final String mType;
+    private final String mTable;
+    private final String mSql;
+
+    long openNanos;
+    long executeNanos;
+    long iterateNanos;
+    long convertNanos;
+    long dispatchNanos;
+    long rowCount;
+    long blobBytes;
+    boolean cacheHit;
+
+    QueryMetrics(@NonNull String type, @NonNull String table, @NonNull String sql) {
+        mType = type;
+        mTable = table;
+        mSql = sql;
+    }
+
+    /**
+     * SELECT, INSERT, UPDATE, UPSERT, or DELETE.
+     */
+    @NonNull
+    public String getType() {
+        return mType;
+    }
+
+    /**
+     * The table name, or the content provider URI.
+     */
+    @NonNull
+    public String getTable() {
+        return mTable;
+    }
+
+    /**
+     * The statement's shape, with ? in place of arguments, so queries which only differ by arguments can be grouped.
+     */
+    @NonNull
+    public String getSql() {
+        return mSql;
+    }
+
+    /**
+     * Time spent opening the database and creating or migrating the table, which only happens for the first
+     * query against a table.
+     */
+    public long getOpenNanos() {
+        return openNanos;
+    }
+
+    /**
+     * Time spent in SQLite (or the content provider) executing the statement. For selects, this includes
+     * filling the cursor's first window of rows.
+     */
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    /**
+     * Time spent moving through the cursor, including filling any further windows of rows.
+     */
+    public long getIterateNanos() {
+        return iterateNanos;
+    }
+
+    /**
+     * Time spent converting cursor rows into row objects.
+     */
+    public long getConvertNanos() {
+        return convertNanos;
+    }
+
+    /**
+     * Time between the results being ready and the callback returning, for queries with a callback.
+     */
+    public long getDispatchNanos() {
+        return dispatchNanos;
+    }
+
+    public long getTotalNanos() {
+        return openNanos + executeNanos + iterateNanos + convertNanos + dispatchNanos;
+    }
+
+    /**
+     * Rows returned by a select, or rows changed by a write.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Bytes of BLOB columns read into rows (byte arrays, Bitmaps and codec-encoded objects).
+     */
+    public long getBlobBytes() {
+        return blobBytes;
+    }
+
+    /**
+     * Whether the results came from the {@link QueryCache}, without touching the database.
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s (%d rows, %.2fms: open %.2f, execute %.2f, iterate %.2f, convert %.2f, dispatch %.2f%s)",
+                mSql, rowCount, getTotalNanos() / 1e6, openNanos / 1e6, executeNanos / 1e6, iterateNanos / 1e6,
+                convertNanos / 1e6, dispatchNanos / 1e6, cacheHit ? ", cached" : "");
+    }
+}
@@ -0,0 +1,135 @@
+package com.afollestad.inquiry;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.afollestad.inquiry.callbacks.GetCallback;
+
+/**
+ * Keeps re-running a select whenever its table changes, delivering each new result on the main thread.
+ * Changes to database tables are picked up from writes made through Inquiry; changes to content provider
+ * URIs are picked up from the ContentResolver's notifications.
+ * <p/>
+ * Bursts of changes are coalesced: a re-query waits until no change has arrived for the debounce interval,
+ * and changes that arrive while a re-query is running cause exactly one more re-query once it's delivered.
+ * Returned by {@link Query#observe(GetCallback)}, call {@link #stop()} when results are no longer needed.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class QueryObserver<RowType> {
+
+    private final Inquiry mInquiry;
+    private final Query<RowType> mQuery;
+    private final GetCallback<RowType> mCallback;
+    private final Handler mHandler;
+    private final long mDebounceMillis;
+    @Nullable
+    private final String mDatabaseName;
+    @Nullable
+    private final String mTableName;
+    @Nullable
+    private final Uri mContentUri;
+    @Nullable
+    private ContentObserver mContentObserver;
+
+    // Only written on the main thread, stop() may read it from any thread
+    @Nullable
+    private volatile QueryTask mRunning;
+    // Only touched on the main thread
+    private boolean mChangedWhileRunning;
+    private volatile boolean mStopped;
+
+    private final Runnable mRequery = new Runnable() {
+        @Override
+        public void run() {
+            requery();
+        }
+    };
+
+    QueryObserver(@NonNull Inquiry inquiry, @NonNull Query<RowType> query, @NonNull GetCallback<RowType> callback,
+                  long debounceMillis, @Nullable String databaseName, @Nullable String tableName, @Nullable Uri contentUri) {
+        if (inquiry.mHandler == null)
+            throw new IllegalStateException("Inquiry has been deinitialized.");
+        mInquiry = inquiry;
+        mQuery = query;
+        mCallback = callback;
+        mHandler = inquiry.mHandler;
+        mDebounceMillis = debounceMillis;
+        mDatabaseName = databaseName;
+        mTableName = tableName;
+        mContentUri = contentUri;
+    }
+
+    void start() {
+        if (mContentUri != null) {
+            mContentObserver = new ContentObserver(mHandler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    onChanged();
+                }
+            };
+            mInquiry.mContext.getContentResolver().registerContentObserver(mContentUri, true, mContentObserver);
+        } else if (mDatabaseName != null && mTableName != null) {
+            mInquiry.addTableObserver(mDatabaseName, mTableName, this);
+        }
+        // The first result isn't debounced
+        mHandler.post(mRequery);
+    }
+
+    /**
+     * Schedules a re-query once changes stop arriving for the debounce interval. Safe to call from any thread.
+     */
+    void onChanged() {
+        if (mStopped) return;
+        mHandler.removeCallbacks(mRequery);
+        mHandler.postDelayed(mRequery, mDebounceMillis);
+    }
+
+    private void requery() {
+        if (mStopped) return;
+        if (mRunning != null && !mRunning.isDone()) {
+            mChangedWhileRunning = true;
+            return;
+        }
+        // The callback is posted to the main thread, so it always runs after the task is stored
+        final QueryTask[] task = new QueryTask[1];
+        task[0] = mQuery.all(new GetCallback<RowType>() {
+            @Override
+            public void result(@Nullable RowType[] result) {
+                if (mStopped) return;
+                // Only clears its own task, never a newer one
+                if (mRunning == task[0])
+                    mRunning = null;
+                mCallback.result(result);
+                if (mChangedWhileRunning) {
+                    mChangedWhileRunning = false;
+                    onChanged();
+                }
+            }
+        });
+        mRunning = task[0];
+    }
+
+    /**
+     * Stops observing. No results are delivered after this returns if it's called on the main thread.
+     */
+    public void stop() {
+        if (mStopped) return;
+        mStopped = true;
+        mHandler.removeCallbacks(mRequery);
+        final QueryTask running = mRunning;
+        if (running != null)
+            running.cancel();
+        if (mContentObserver != null && mInquiry.mContext != null)
+            mInquiry.mContext.getContentResolver().unregisterContentObserver(mContentObserver);
+        else if (mDatabaseName != null && mTableName != null)
+            mInquiry.removeTableObserver(mDatabaseName, mTableName, this);
+    }
+
+    public boolean isStopped() {
+        return mStopped;
+    }
+}
@@ -0,0 +1,84 @@
+package com.afollestad.inquiry;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Future;
+
+/**
+ * A handle to a query running asynchronously on the {@link QueryExecutor}. Cancelling it prevents the callback
+ * from being invoked; a pending query never runs, and a running select is interrupted as soon as possible
+ * (including SQLite's own execution on Jelly Bean and above). A write that has already started
+ * runs to completion.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class QueryTask {
+
+    private final Object mCancellationSignal;
+    @Nullable
+    private final QueryTask[] mChildren;
+    private Future<?> mFuture;
+    private volatile boolean mCancelled;
+
+    QueryTask() {
+        mCancellationSignal = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ?
+                new CancellationSignal() : null;
+        mChildren = null;
+    }
+
+    /**
+     * A task for a group of queries, which is cancelled and done along with all of them.
+     */
+    QueryTask(@NonNull QueryTask[] children) {
+        mCancellationSignal = null;
+        mChildren = children;
+    }
+
+    synchronized void setFuture(Future<?> future) {
+        mFuture = future;
+        if (mCancelled)
+            mFuture.cancel(false);
+    }
+
+    /**
+     * Only non-null on API 16 and above.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Nullable
+    CancellationSignal getCancellationSignal() {
+        return (CancellationSignal) mCancellationSignal;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public synchronized void cancel() {
+        if (mCancelled) return;
+        mCancelled = true;
+        if (mCancellationSignal != null)
+            ((CancellationSignal) mCancellationSignal).cancel();
+        if (mFuture != null)
+            mFuture.cancel(false);
+        if (mChildren != null) {
+            for (QueryTask child : mChildren)
+                child.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public synchronized boolean isDone() {
+        if (mCancelled) return true;
+        if (mChildren != null) {
+            for (QueryTask child : mChildren) {
+                if (!child.isDone()) return false;
+            }
+            return true;
+        }
+        return mFuture != null && mFuture.isDone();
+    }
+}
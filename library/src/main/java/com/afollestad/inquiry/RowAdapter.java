@@ -0,0 +1,56 @@
+package com.afollestad.inquiry;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Reads and writes rows of a single class without reflection. Implementations are generated at compile
+ * time by the inquiry-compiler annotation processor, named after the row class with a $$RowAdapter suffix.
+ * Classes without a generated adapter fall back to reflection.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface RowAdapter<RowType> {
+
+    /**
+     * The column definitions used to create the row class's table.
+     */
+    @NonNull
+    String schema();
+
+    /**
+     * Names of every column of the row class, in declaration order.
+     */
+    @NonNull
+    String[] columns();
+
+    @NonNull
+    RowType newRow();
+
+    /**
+     * Fills in the row from the cursor's current position. columnIndices has one entry per
+     * column in {@link #columns()}, holding that column's index in the cursor or -1 if the cursor doesn't contain it.
+     */
+    void read(@NonNull Cursor cursor, @NonNull int[] columnIndices, @NonNull RowType row);
+
+    /**
+     * Puts the row's non-null, non-auto-increment values into values. If include is non-null, it has one entry
+     * per column in {@link #columns()}, and columns whose entry is false are skipped.
+     */
+    void write(@NonNull RowType row, @NonNull ContentValues values, @Nullable boolean[] include);
+
+    /**
+     * Names of the columns {@link #bind(Object, SQLiteStatement)} binds, in order: every column except auto-increment ones.
+     */
+    @NonNull
+    String[] insertColumns();
+
+    /**
+     * Binds the row's {@link #insertColumns()} values to the statement's parameters, starting at 1.
+     * Null values are bound as NULL.
+     */
+    void bind(@NonNull RowType row, @NonNull SQLiteStatement statement);
+}
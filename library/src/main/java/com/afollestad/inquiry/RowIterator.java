@@ -0,0 +1,151 @@
+package com.afollestad.inquiry;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Converts rows one at a time as the underlying cursor advances, rather than loading every row up front.
+ * The cursor is closed once the last row has been read; call {@link #close()} if you stop iterating early.
+ * <p/>
+ * Database tables are read in chunks which double in size, starting small: a cursor counts every row it covers
+ * before returning its first one, so reading the whole result through one cursor would take as long to return
+ * its first row as to count them all. Each chunk starts right after the last row of the previous one.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class RowIterator<RowType> implements Iterator<RowType>, Iterable<RowType>, Closeable {
+
+    static final int FIRST_CHUNK_ROWS = 128;
+    // Doubling keeps the rows an OFFSET skips over to fewer than the rows read, capping only guards against overflow
+    private static final int MAX_CHUNK_ROWS = 1 << 20;
+
+    /**
+     * Opens the cursor over a chunk of the results.
+     */
+    interface ChunkSource {
+
+        /**
+         * How many columns the source selects after the row's own for its own use, e.g. to seek past a row.
+         */
+        int getExtraColumns();
+
+        /**
+         * @param offset How many rows the previous chunks held.
+         * @param last   The previous chunk's cursor, on its last row, or null for the first chunk.
+         */
+        @Nullable
+        Cursor open(int offset, int limit, @Nullable Cursor last);
+    }
+
+    private final Class<RowType> mRowClass;
+    @Nullable
+    private final ChunkSource mSource;
+    private final int mLimit;
+    private final boolean mReuseRow;
+    @Nullable
+    private Cursor mCursor;
+    @Nullable
+    private BindingPlan<RowType> mPlan;
+    @Nullable
+    private RowType mReusedRow;
+    private int mOffset;
+    private int mChunkRows;
+    private boolean mMoved;
+    private boolean mHasNext;
+
+    RowIterator(@Nullable Cursor cursor, @NonNull Class<RowType> rowClass, boolean reuseRow) {
+        mRowClass = rowClass;
+        mSource = null;
+        mLimit = -1;
+        mReuseRow = reuseRow;
+        setCursor(cursor);
+    }
+
+    /**
+     * @param limit The most rows to read in total, or -1 to read every row.
+     */
+    RowIterator(@NonNull ChunkSource source, int limit, @NonNull Class<RowType> rowClass, boolean reuseRow) {
+        mRowClass = rowClass;
+        mSource = source;
+        mLimit = limit;
+        mReuseRow = reuseRow;
+        mChunkRows = limit > 0 ? Math.min(limit, FIRST_CHUNK_ROWS) : FIRST_CHUNK_ROWS;
+        setCursor(source.open(0, mChunkRows, null));
+    }
+
+    private void setCursor(@Nullable Cursor cursor) {
+        mCursor = cursor;
+        if (cursor != null && mPlan == null) {
+            final int extraColumns = mSource != null ? mSource.getExtraColumns() : 0;
+            mPlan = BindingPlan.get(cursor, mRowClass, cursor.getColumnCount() - extraColumns);
+            mReusedRow = mReuseRow ? mPlan.newRow() : null;
+        }
+    }
+
+    /**
+     * Opens the next chunk if the current one was full, returning whether there is one.
+     */
+    private boolean nextChunk() {
+        if (mSource == null || mCursor == null || mCursor.getCount() < mChunkRows) return false;
+        final Cursor last = mCursor;
+        mCursor = null;
+        mOffset += mChunkRows;
+        try {
+            if (mLimit > 0 && mOffset >= mLimit) return false;
+            mChunkRows = Math.min(mChunkRows * 2, MAX_CHUNK_ROWS);
+            if (mLimit > 0)
+                mChunkRows = Math.min(mChunkRows, mLimit - mOffset);
+            last.moveToLast();
+            setCursor(mSource.open(mOffset, mChunkRows, last));
+        } finally {
+            last.close();
+        }
+        return mCursor != null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!mMoved) {
+            mHasNext = mCursor != null && !mCursor.isClosed() && mCursor.moveToNext();
+            while (!mHasNext && nextChunk())
+                mHasNext = mCursor.moveToNext();
+            mMoved = true;
+            if (!mHasNext) close();
+        }
+        return mHasNext;
+    }
+
+    /**
+     * Returns the next row. If the iterator was created to reuse rows, the same instance is returned
+     * every time, filled in with the current row's values.
+     */
+    @Override
+    public RowType next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        mMoved = false;
+        //noinspection ConstantConditions
+        return mReusedRow != null ? mPlan.read(mCursor, mReusedRow) : mPlan.read(mCursor);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Rows can't be removed through a RowIterator.");
+    }
+
+    @Override
+    public Iterator<RowType> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (mCursor != null && !mCursor.isClosed())
+            mCursor.close();
+    }
+}
@@ -0,0 +1,369 @@
+package com.afollestad.inquiry;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.afollestad.inquiry.annotations.BitmapColumn;
+import com.afollestad.inquiry.annotations.Column;
+import com.afollestad.inquiry.codecs.ColumnCodec;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Extracts column values from rows of a single class. Column fields and the way each one is read are resolved
+ * once per class; primitive fields are read with the typed Field getters and bound straight into statements,
+ * so writing numeric columns doesn't box.
+ */
+final class RowWriter {
+
+    private static final Map<Class<?>, RowWriter> sWriters = new ConcurrentHashMap<>();
+
+    private final Class<?> mRowClass;
+    @Nullable
+    private final RowAdapter<Object> mAdapter;
+    private final String[] mColumns;
+    private final String[] mInsertColumns;
+    // Resolved even when there's an adapter, for updates that bind an arbitrary set of columns
+    private final Field[] mFields;
+    private final String[] mFieldNames;
+    private final int[] mAccessors;
+    private final ColumnCodec[] mCodecs;
+    private final BitmapColumn[] mBitmapColumns;
+    private final int[] mInsertFields;
+    private final boolean[] mLazy;
+    private final int mPrimaryKey;
+
+    @SuppressWarnings("unchecked")
+    private RowWriter(Class<?> rowClass) {
+        mRowClass = rowClass;
+        mAdapter = ClassRowConverter.getAdapter((Class<Object>) rowClass);
+        final List<Field> fields = new ArrayList<>();
+        final List<Integer> insertFields = new ArrayList<>();
+        final List<Boolean> lazy = new ArrayList<>();
+        int primaryKey = -1;
+        for (Field fld : rowClass.getDeclaredFields()) {
+            final Column colAnn = fld.getAnnotation(Column.class);
+            if (colAnn == null) continue;
+            fld.setAccessible(true);
+            if (colAnn.primaryKey())
+                primaryKey = fields.size();
+            if (!colAnn.autoIncrement())
+                insertFields.add(fields.size());
+            lazy.add(colAnn.lazy());
+            fields.add(fld);
+        }
+        if (fields.isEmpty())
+            throw new IllegalStateException("Class " + rowClass.getName() + " has no column fields.");
+        mPrimaryKey = primaryKey;
+        mFields = fields.toArray(new Field[fields.size()]);
+        mFieldNames = new String[mFields.length];
+        mAccessors = new int[mFields.length];
+        mCodecs = new ColumnCodec[mFields.length];
+        mBitmapColumns = new BitmapColumn[mFields.length];
+        mLazy = new boolean[mFields.length];
+        for (int i = 0; i < mFields.length; i++) {
+            mFieldNames[i] = mFields[i].getName();
+            mLazy[i] = lazy.get(i);
+            mAccessors[i] = BindingPlan.accessorFor(mFields[i].getType());
+            if (mAccessors[i] == BindingPlan.ACCESSOR_OBJECT)
+                mCodecs[i] = ClassRowConverter.getCodec(mFields[i]);
+            else if (mAccessors[i] == BindingPlan.ACCESSOR_BITMAP)
+                mBitmapColumns[i] = mFields[i].getAnnotation(BitmapColumn.class);
+        }
+        mInsertFields = new int[insertFields.size()];
+        for (int i = 0; i < mInsertFields.length; i++)
+            mInsertFields[i] = insertFields.get(i);
+        if (mAdapter != null) {
+            mColumns = mAdapter.columns();
+            mInsertColumns = mAdapter.insertColumns();
+        } else {
+            mColumns = mFieldNames;
+            mInsertColumns = new String[mInsertFields.length];
+            for (int i = 0; i < mInsertFields.length; i++)
+                mInsertColumns[i] = mFieldNames[mInsertFields[i]];
+        }
+    }
+
+    @NonNull
+    public static RowWriter get(@NonNull Class<?> rowClass) {
+        RowWriter writer = sWriters.get(rowClass);
+        if (writer == null) {
+            writer = new RowWriter(rowClass);
+            sWriters.put(rowClass, writer);
+        }
+        return writer;
+    }
+
+    /**
+     * The columns {@link #bind(SQLiteStatement, Object)} binds, in order: every column except auto-increment ones.
+     */
+    @NonNull
+    public String[] getInsertColumns() {
+        return mInsertColumns;
+    }
+
+    /**
+     * The index of the primary key field, for use with {@link #getFieldName(int)} and
+     * {@link #bindFields(SQLiteStatement, Object, int[], int)}, or -1 if the class doesn't have one.
+     */
+    public int getPrimaryKeyField() {
+        return mPrimaryKey;
+    }
+
+    /**
+     * Whether an update of the row has anything to write besides its primary key.
+     */
+    public boolean hasUpdateFields() {
+        for (int fieldIndex : mInsertFields) {
+            if (fieldIndex != mPrimaryKey)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indices of the fields an update of the row writes: every column except the primary key and auto-increment
+     * columns, limited to the projection if there is one. Without a projection, lazy columns which are null in the
+     * row are left out too (unless allLazy is set), since rows selected without them hold nulls that would otherwise
+     * overwrite the stored values.
+     */
+    @NonNull
+    public int[] getUpdateFields(@Nullable String[] projection, @NonNull Object row, boolean allLazy) {
+        final boolean all = projection == null || projection.length == 0;
+        final List<Integer> indices = new ArrayList<>();
+        try {
+            for (int fieldIndex : mInsertFields) {
+                if (fieldIndex == mPrimaryKey || !projects(projection, mFieldNames[fieldIndex]) ||
+                        (all && !allLazy && mLazy[fieldIndex] && mFields[fieldIndex].get(row) == null)) continue;
+                indices.add(fieldIndex);
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        if (indices.isEmpty())
+            throw new IllegalStateException("There are no columns to update in " + mRowClass.getName() + ".");
+        final int[] result = new int[indices.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = indices.get(i);
+        return result;
+    }
+
+    @NonNull
+    public String getFieldName(int fieldIndex) {
+        return mFieldNames[fieldIndex];
+    }
+
+    private static boolean projects(@Nullable String[] projection, String column) {
+        if (projection == null || projection.length == 0) return true;
+        for (String proj : projection) {
+            if (proj != null && proj.equalsIgnoreCase(column))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns which columns a projection includes, or null if it includes every column.
+     */
+    @Nullable
+    public boolean[] include(@Nullable String[] projection) {
+        if (projection == null || projection.length == 0) return null;
+        final boolean[] include = new boolean[mColumns.length];
+        boolean any = false;
+        for (int i = 0; i < mColumns.length; i++) {
+            include[i] = projects(projection, mColumns[i]);
+            any |= include[i];
+        }
+        if (!any)
+            throw new IllegalStateException("Class " + mRowClass.getName() + " has no column fields.");
+        return include;
+    }
+
+    /**
+     * Binds the row's insert columns to the statement's parameters, starting at 1. Null values are bound as NULL.
+     */
+    public void bind(@NonNull SQLiteStatement statement, @NonNull Object row) {
+        if (mAdapter != null) {
+            mAdapter.bind(row, statement);
+            return;
+        }
+        bindFields(statement, row, mInsertFields, 1);
+    }
+
+    /**
+     * Binds the given fields of the row to consecutive statement parameters, starting at firstIndex.
+     */
+    public void bindFields(@NonNull SQLiteStatement statement, @NonNull Object row, @NonNull int[] fieldIndices, int firstIndex) {
+        try {
+            for (int i = 0; i < fieldIndices.length; i++)
+                bindField(statement, firstIndex + i, row, fieldIndices[i]);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void bindField(SQLiteStatement statement, int index, Object row, int fieldIndex) throws IllegalAccessException {
+        final Field field = mFields[fieldIndex];
+        if (field.getType().isPrimitive()) {
+            switch (mAccessors[fieldIndex]) {
+                case BindingPlan.ACCESSOR_FLOAT:
+                case BindingPlan.ACCESSOR_DOUBLE:
+                    statement.bindDouble(index, field.getDouble(row));
+                    break;
+                case BindingPlan.ACCESSOR_BOOLEAN:
+                    statement.bindLong(index, field.getBoolean(row) ? 1 : 0);
+                    break;
+                case BindingPlan.ACCESSOR_CHAR:
+                    statement.bindString(index, String.valueOf(field.getChar(row)));
+                    break;
+                default:
+                    statement.bindLong(index, field.getLong(row));
+                    break;
+            }
+            return;
+        }
+        final Object value = field.get(row);
+        if (value == null) {
+            statement.bindNull(index);
+            return;
+        }
+        switch (mAccessors[fieldIndex]) {
+            case BindingPlan.ACCESSOR_FLOAT:
+            case BindingPlan.ACCESSOR_DOUBLE:
+                statement.bindDouble(index, ((Number) value).doubleValue());
+                break;
+            case BindingPlan.ACCESSOR_SHORT:
+            case BindingPlan.ACCESSOR_INT:
+            case BindingPlan.ACCESSOR_LONG:
+                statement.bindLong(index, ((Number) value).longValue());
+                break;
+            case BindingPlan.ACCESSOR_BOOLEAN:
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+                break;
+            case BindingPlan.ACCESSOR_BYTES:
+                statement.bindBlob(index, (byte[]) value);
+                break;
+            case BindingPlan.ACCESSOR_BITMAP:
+                statement.bindBlob(index, BitmapStorage.encode((Bitmap) value, mBitmapColumns[fieldIndex], true));
+                break;
+            case BindingPlan.ACCESSOR_OBJECT:
+                statement.bindBlob(index, mCodecs[fieldIndex].encode(value));
+                break;
+            case BindingPlan.ACCESSOR_CHARS:
+                statement.bindString(index, charsToString(value));
+                break;
+            default:
+                statement.bindString(index, value.toString());
+                break;
+        }
+    }
+
+    /**
+     * Puts the row's non-null, non-auto-increment values into a new ContentValues.
+     *
+     * @param include From {@link #include(String[])}, or null to include every column.
+     * @param offRow  Whether large Bitmaps may be stored in files, which only works for this app's own database.
+     */
+    @NonNull
+    public ContentValues toValues(@NonNull Object row, @Nullable boolean[] include, boolean offRow) {
+        final ContentValues values = new ContentValues(mColumns.length);
+        if (mAdapter != null) {
+            mAdapter.write(row, values, include);
+            return values;
+        }
+        try {
+            for (int fieldIndex : mInsertFields) {
+                if (include == null || include[fieldIndex])
+                    putField(values, row, fieldIndex, offRow);
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        return values;
+    }
+
+    private void putField(ContentValues values, Object row, int fieldIndex, boolean offRow) throws IllegalAccessException {
+        final Field field = mFields[fieldIndex];
+        final String name = mFieldNames[fieldIndex];
+        if (field.getType().isPrimitive()) {
+            switch (mAccessors[fieldIndex]) {
+                case BindingPlan.ACCESSOR_FLOAT:
+                    values.put(name, field.getFloat(row));
+                    break;
+                case BindingPlan.ACCESSOR_DOUBLE:
+                    values.put(name, field.getDouble(row));
+                    break;
+                case BindingPlan.ACCESSOR_SHORT:
+                    values.put(name, field.getShort(row));
+                    break;
+                case BindingPlan.ACCESSOR_INT:
+                    values.put(name, field.getInt(row));
+                    break;
+                case BindingPlan.ACCESSOR_BOOLEAN:
+                    values.put(name, field.getBoolean(row) ? 1 : 0);
+                    break;
+                case BindingPlan.ACCESSOR_CHAR:
+                    values.put(name, String.valueOf(field.getChar(row)));
+                    break;
+                default:
+                    values.put(name, field.getLong(row));
+                    break;
+            }
+            return;
+        }
+        final Object value = field.get(row);
+        if (value == null) return;
+        switch (mAccessors[fieldIndex]) {
+            case BindingPlan.ACCESSOR_FLOAT:
+                values.put(name, (Float) value);
+                break;
+            case BindingPlan.ACCESSOR_DOUBLE:
+                values.put(name, (Double) value);
+                break;
+            case BindingPlan.ACCESSOR_SHORT:
+                values.put(name, (Short) value);
+                break;
+            case BindingPlan.ACCESSOR_INT:
+                values.put(name, (Integer) value);
+                break;
+            case BindingPlan.ACCESSOR_LONG:
+                values.put(name, (Long) value);
+                break;
+            case BindingPlan.ACCESSOR_BOOLEAN:
+                values.put(name, (Boolean) value ? 1 : 0);
+                break;
+            case BindingPlan.ACCESSOR_BYTES:
+                values.put(name, (byte[]) value);
+                break;
+            case BindingPlan.ACCESSOR_BITMAP:
+                values.put(name, BitmapStorage.encode((Bitmap) value, mBitmapColumns[fieldIndex], offRow));
+                break;
+            case BindingPlan.ACCESSOR_OBJECT:
+                values.put(name, mCodecs[fieldIndex].encode(value));
+                break;
+            case BindingPlan.ACCESSOR_CHARS:
+                values.put(name, charsToString(value));
+                break;
+            default:
+                values.put(name, value.toString());
+                break;
+        }
+    }
+
+    private static String charsToString(Object value) {
+        if (value instanceof char[])
+            return new String((char[]) value);
+        final Character[] chars = (Character[]) value;
+        final StringBuilder sb = new StringBuilder(chars.length);
+        for (Character c : chars)
+            sb.append(c);
+        return sb.toString();
+    }
+}
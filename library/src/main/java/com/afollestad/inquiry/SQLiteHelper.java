@@ -1,56 +1,382 @@
 package com.afollestad.inquiry;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 class SQLiteHelper extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 1;
-    private final String mTableName;
+    private static final int STATEMENT_CACHE_SIZE = 16;
+    // Indexed by the SQLiteDatabase.CONFLICT_ constants
+    private static final String[] CONFLICT_VALUES = new String[]{"", "ROLLBACK", "ABORT", "FAIL", "IGNORE", "REPLACE"};
+    private final Set<String> mTables = new HashSet<>();
+    private final LruCache<String, SQLiteStatement> mStatements = new LruCache<String, SQLiteStatement>(STATEMENT_CACHE_SIZE) {
+        @Override
+        protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue, SQLiteStatement newValue) {
+            oldValue.close();
+        }
+    };
+
+    private final DatabaseConfig mConfig;
+
+    public SQLiteHelper(Context context, String databaseName, DatabaseConfig config) {
+        super(context, databaseName, null, config.version);
+        mConfig = config;
+        if (config.writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            setWalEnabled();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setWalEnabled() {
+        // Takes effect as the database is opened, before any connections are pooled
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase database) {
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (mConfig.writeAheadLogging && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly())
+            db.enableWriteAheadLogging();
+        // These only reach the primary connection: Android has no hook for the pooled WAL read connections
+        if (mConfig.synchronous != DatabaseConfig.UNSET)
+            pragma(db, "synchronous = " + mConfig.synchronous);
+        if (mConfig.cacheSizeKb != DatabaseConfig.UNSET)
+            pragma(db, "cache_size = -" + mConfig.cacheSizeKb);
+        if (mConfig.mmapSize != DatabaseConfig.UNSET)
+            pragma(db, "mmap_size = " + mConfig.mmapSize);
+        if (mConfig.tempStore != DatabaseConfig.UNSET)
+            pragma(db, "temp_store = " + mConfig.tempStore);
+        if (mConfig.statementCacheSize != DatabaseConfig.UNSET)
+            db.setMaxSqlCacheSize(mConfig.statementCacheSize);
+    }
+
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        // Some pragmas return a row, which execSQL() doesn't allow
+        final Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public final DatabaseConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * Runs the configured migrations leading from oldVersion to newVersion, taking the biggest step available
+     * from each version. Versions without a migration are skipped; tables still pick up added and removed
+     * columns when they're registered.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        while (version < newVersion) {
+            Migration next = null;
+            for (Migration migration : mConfig.migrations) {
+                if (migration.startVersion == version && migration.endVersion <= newVersion &&
+                        (next == null || migration.endVersion > next.endVersion))
+                    next = migration;
+            }
+            if (next == null) {
+                Log.w(SQLiteHelper.class.getName(), "No migration from version " + version + ", skipping to " + (version + 1));
+                version++;
+                continue;
+            }
+            next.migrate(db);
+            version = next.endVersion;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        synchronized (mStatements) {
+            mStatements.evictAll();
+        }
+        synchronized (mTables) {
+            mTables.clear();
+        }
+        super.close();
+    }
 
-    public SQLiteHelper(Context context, String databaseName, String table, String columns) {
-        super(context, databaseName, null, DATABASE_VERSION);
-        mTableName = table;
-        if (mTableName != null && columns != null) {
+    /**
+     * Creates the table for a row class, along with the indexes it declares, the first time it's used through
+     * this helper. If the table already exists, it's migrated to match the row class's columns first.
+     * Later calls skip the schema lookup and DDL entirely.
+     */
+    public final void registerTable(String table, Class<?> rowClass) {
+        synchronized (mTables) {
+            if (mTables.contains(table)) return;
+            final String columns = ClassRowConverter.getClassSchema(rowClass);
+            final SQLiteDatabase db = getWritableDatabase();
             try {
-                final String createStatement = String.format("CREATE TABLE IF NOT EXISTS %s (%s);", table, columns);
-                getWritableDatabase().execSQL(createStatement);
+                db.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s (%s);", table, columns));
+                SchemaMigrator.reconcile(db, table, columns, mConfig.rebuildTables);
+                db.beginTransaction();
+                try {
+                    for (String index : ClassRowConverter.getIndexStatements(table, rowClass))
+                        db.execSQL(index);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
+            // Statements compiled against the table before it was migrated can't be reused
+            evictStatements(table);
+            mTables.add(table);
         }
     }
 
-    @Override
-    public void onCreate(SQLiteDatabase database) {
+    public final void dropTable(String table) {
+        synchronized (mTables) {
+            getWritableDatabase().execSQL("DROP TABLE IF EXISTS " + table);
+            mTables.remove(table);
+        }
+        // Statements compiled against the old table can't be reused
+        evictStatements(table);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (mTableName == null) return;
-        Log.w(SQLiteHelper.class.getName(), "Upgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
-        db.execSQL("DROP TABLE IF EXISTS " + mTableName);
-        onCreate(db);
+    /**
+     * Closes the cached statements which write to the table. Writes hold the cache's lock while they use its
+     * statements, so none is closed while another thread is binding or executing it.
+     */
+    private void evictStatements(String table) {
+        final String prefix = table + ':';
+        synchronized (mStatements) {
+            for (String key : mStatements.snapshot().keySet()) {
+                if (key.startsWith(prefix))
+                    mStatements.remove(key);
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public final Cursor query(String table, String[] projection, String selection, String[] selectionArgs,
+                              String groupBy, String sortOrder, String limit, CancellationSignal signal) {
+        if (signal != null)
+            return getReadableDatabase().query(false, table, projection, selection, selectionArgs, groupBy, null, sortOrder, limit, signal);
+        return getReadableDatabase().query(table, projection, selection, selectionArgs, groupBy, null, sortOrder, limit);
+    }
+
+    /**
+     * Runs a select with its arguments bound by type, as integers, floats, BLOBs or text, rather than all as text.
+     * Connections cache compiled statements by their SQL, so running the same SQL again skips parsing it.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public final Cursor rawQuery(String sql, final Object[] args, String table, CancellationSignal signal) {
+        final SQLiteDatabase.CursorFactory factory = new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+                if (args != null) {
+                    for (int i = 0; i < args.length; i++)
+                        bindArg(query, i + 1, args[i]);
+                }
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        };
+        if (signal != null)
+            return getReadableDatabase().rawQueryWithFactory(factory, sql, null, table, signal);
+        return getReadableDatabase().rawQueryWithFactory(factory, sql, null, table);
+    }
+
+    static void bindArg(SQLiteProgram program, int index, Object arg) {
+        if (arg == null)
+            program.bindNull(index);
+        else if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte)
+            program.bindLong(index, ((Number) arg).longValue());
+        else if (arg instanceof Float || arg instanceof Double)
+            program.bindDouble(index, ((Number) arg).doubleValue());
+        else if (arg instanceof Boolean)
+            program.bindLong(index, (Boolean) arg ? 1 : 0);
+        else if (arg instanceof byte[])
+            program.bindBlob(index, (byte[]) arg);
+        else
+            program.bindString(index, arg.toString());
+    }
+
+    /**
+     * Inserts every row using one compiled statement per row class, committing one transaction per batchSize rows
+     * (or a single transaction for all rows if batchSize is 0 or less) rather than one implicit transaction per row.
+     * Values are bound straight from the row's fields, without going through ContentValues.
+     * A failing row rolls back the batch it belongs to and the exception is rethrown.
+     *
+     * @param conflictAlgorithm One of the SQLiteDatabase.CONFLICT_ constants.
+     */
+    public final long insert(final String table, Object[] rows, int batchSize, final int conflictAlgorithm) {
+        return writeRows(rows, batchSize, new RowOperation() {
+            @Override
+            public boolean apply(SQLiteDatabase db, RowWriter writer, Object row) {
+                return insertRow(db, table, writer, row, conflictAlgorithm);
+            }
+        });
+    }
+
+    /**
+     * Updates every row in place, matching each one by its primary key, with the same batching as
+     * {@link #insert(String, Object[], int, int)}. Only projected columns are written if there's a projection.
+     */
+    public final long update(final String table, Object[] rows, final String[] projection, int batchSize) {
+        return writeRows(rows, batchSize, new RowOperation() {
+            @Override
+            public boolean apply(SQLiteDatabase db, RowWriter writer, Object row) {
+                return updateRow(db, table, writer, row, projection, false);
+            }
+        });
+    }
+
+    /**
+     * Updates rows whose primary key already exists and inserts the rest. Unlike INSERT OR REPLACE, existing
+     * rows are updated rather than deleted and re-inserted, so they keep their row IDs. Every column is written,
+     * lazy ones included, just like an insert. Rows with nothing but a primary key are inserted unless they exist.
+     */
+    public final long upsert(final String table, Object[] rows, int batchSize) {
+        return writeRows(rows, batchSize, new RowOperation() {
+            @Override
+            public boolean apply(SQLiteDatabase db, RowWriter writer, Object row) {
+                if (writer.getPrimaryKeyField() == -1)
+                    throw new IllegalStateException("Class " + row.getClass().getName() + " has no primary key column to upsert by.");
+                // An update with no columns to set isn't valid SQL
+                if (!writer.hasUpdateFields())
+                    return insertRow(db, table, writer, row, SQLiteDatabase.CONFLICT_IGNORE);
+                return updateRow(db, table, writer, row, null, true) ||
+                        insertRow(db, table, writer, row, SQLiteDatabase.CONFLICT_NONE);
+            }
+        });
     }
 
-    public final Cursor query(String[] projection, String selection,
-                              String[] selectionArgs, String sortOrder) {
-        return getReadableDatabase().query(mTableName, projection, selection, selectionArgs, null, null, sortOrder);
+    private interface RowOperation {
+        boolean apply(SQLiteDatabase db, RowWriter writer, Object row);
     }
 
-    public final long insert(ContentValues values) {
-        return getWritableDatabase().insert(mTableName, null, values);
+    private long writeRows(Object[] rows, int batchSize, RowOperation operation) {
+        final SQLiteDatabase db = getWritableDatabase();
+        long changed = 0;
+        int index = 0;
+        // SQLite runs one write at a time anyway, holding the lock keeps the cached statements open while in use
+        synchronized (mStatements) {
+            while (index < rows.length) {
+                final int end = batchSize > 0 ? Math.min(rows.length, index + batchSize) : rows.length;
+                db.beginTransaction();
+                try {
+                    for (; index < end; index++) {
+                        if (operation.apply(db, RowWriter.get(rows[index].getClass()), rows[index]))
+                            changed++;
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean insertRow(SQLiteDatabase db, String table, RowWriter writer, Object row, int conflictAlgorithm) {
+        final String key = table + ":insert:" + conflictAlgorithm + ':' + row.getClass().getName();
+        SQLiteStatement statement = mStatements.get(key);
+        if (statement == null) {
+            statement = db.compileStatement(buildInsertSql(table, writer.getInsertColumns(), conflictAlgorithm));
+            mStatements.put(key, statement);
+        }
+        statement.clearBindings();
+        writer.bind(statement, row);
+        return statement.executeInsert() != -1;
+    }
+
+    private boolean updateRow(SQLiteDatabase db, String table, RowWriter writer, Object row, String[] projection,
+                              boolean allLazy) {
+        final int keyField = writer.getPrimaryKeyField();
+        if (keyField == -1)
+            throw new IllegalStateException("Class " + row.getClass().getName() + " has no primary key column to update by.");
+        final int[] fields = writer.getUpdateFields(projection, row, allLazy);
+        final StringBuilder key = new StringBuilder(table).append(":update:").append(row.getClass().getName());
+        for (int field : fields)
+            key.append(',').append(field);
+        SQLiteStatement statement = mStatements.get(key.toString());
+        if (statement == null) {
+            statement = db.compileStatement(buildUpdateSql(table, writer, fields, keyField));
+            mStatements.put(key.toString(), statement);
+        }
+        statement.clearBindings();
+        writer.bindFields(statement, row, fields, 1);
+        writer.bindFields(statement, row, new int[]{keyField}, fields.length + 1);
+        return statement.executeUpdateDelete() > 0;
+    }
+
+    private static String buildInsertSql(String table, String[] columns, int conflictAlgorithm) {
+        final StringBuilder sql = new StringBuilder("INSERT");
+        if (conflictAlgorithm != SQLiteDatabase.CONFLICT_NONE)
+            sql.append(" OR ").append(CONFLICT_VALUES[conflictAlgorithm]);
+        sql.append(" INTO ").append(table);
+        if (columns.length == 0)
+            return sql.append(" DEFAULT VALUES").toString();
+        sql.append(" (");
+        final StringBuilder params = new StringBuilder();
+        for (String column : columns) {
+            if (params.length() > 0) {
+                sql.append(", ");
+                params.append(", ");
+            }
+            sql.append(column);
+            params.append('?');
+        }
+        return sql.append(") VALUES (").append(params).append(')').toString();
+    }
+
+    private static String buildUpdateSql(String table, RowWriter writer, int[] fields, int keyField) {
+        final StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(writer.getFieldName(fields[i])).append(" = ?");
+        }
+        return sql.append(" WHERE ").append(writer.getFieldName(keyField)).append(" = ?").toString();
+    }
+
+    /**
+     * Returns the detail column of each row of EXPLAIN QUERY PLAN for a select statement.
+     */
+    public final List<String> explain(String select, String[] selectionArgs) {
+        final Cursor cursor = getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + select, selectionArgs);
+        final List<String> plan = new ArrayList<>();
+        try {
+            final int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext())
+                plan.add(cursor.getString(detail));
+        } finally {
+            cursor.close();
+        }
+        return plan;
     }
 
-    public final int delete(String selection, String[] selectionArgs) {
-        return getWritableDatabase().delete(mTableName, selection, selectionArgs);
+    public final int delete(String table, String selection, String[] selectionArgs) {
+        return getWritableDatabase().delete(table, selection, selectionArgs);
     }
 
-    public final int update(ContentValues values, String selection, String[] selectionArgs) {
-        return getWritableDatabase().update(mTableName, values, selection, selectionArgs);
+    public final int update(String table, ContentValues values, String selection, String[] selectionArgs) {
+        return getWritableDatabase().update(table, values, selection, selectionArgs);
     }
-}
\ No newline at end of file
+}
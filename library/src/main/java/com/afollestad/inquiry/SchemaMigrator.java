@@ -0,0 +1,232 @@
+package com.afollestad.inquiry;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Brings an existing table in line with its row class's schema. New columns are added in place with
+ * ALTER TABLE ADD COLUMN, NOT NULL ones with their type's zero value (0, '' or an empty BLOB) as the default.
+ * Columns the class doesn't declare are left alone, since other row classes may map to the same table.
+ * <p/>
+ * Changes SQLite can't make in place (a removed column, or a changed type, primary key or NOT NULL constraint)
+ * only rebuild the table if {@link DatabaseConfig.Builder#rebuildTables(boolean)} is enabled, and are logged
+ * otherwise. A rebuild copies rows over in chunks so no single transaction holds the write lock for the whole
+ * copy, drops the columns the class doesn't declare, and fills columns which became NOT NULL with zero values.
+ */
+final class SchemaMigrator {
+
+    private static final String TAG = "Inquiry";
+    private static final String REBUILD_SUFFIX = "__rebuild";
+    private static final int REBUILD_CHUNK_SIZE = 1000;
+
+    private SchemaMigrator() {
+    }
+
+    private static final class ColumnInfo {
+
+        final String definition;
+        final String type;
+        final boolean primaryKey;
+        final boolean notNull;
+
+        ColumnInfo(String definition, String type, boolean primaryKey, boolean notNull) {
+            this.definition = definition;
+            this.type = type.toUpperCase(Locale.US);
+            this.primaryKey = primaryKey;
+            this.notNull = notNull;
+        }
+
+        boolean matches(ColumnInfo other) {
+            return type.equals(other.type) && primaryKey == other.primaryKey && notNull == other.notNull;
+        }
+    }
+
+    /**
+     * Parses a schema from {@link ClassRowConverter#getClassSchema(Class)}, e.g. "_id INTEGER PRIMARY KEY, name TEXT".
+     */
+    private static Map<String, ColumnInfo> parseSchema(String schema) {
+        final Map<String, ColumnInfo> columns = new LinkedHashMap<>();
+        for (String definition : schema.split(",")) {
+            definition = definition.trim();
+            final String[] parts = definition.split("\\s+");
+            final String upper = definition.toUpperCase(Locale.US);
+            columns.put(parts[0].toLowerCase(Locale.US), new ColumnInfo(definition, parts.length > 1 ? parts[1] : "",
+                    upper.contains("PRIMARY KEY"), upper.contains("NOT NULL")));
+        }
+        return columns;
+    }
+
+    private static Map<String, ColumnInfo> readTableInfo(SQLiteDatabase db, String table) {
+        final Map<String, ColumnInfo> columns = new LinkedHashMap<>();
+        final Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            final int name = cursor.getColumnIndexOrThrow("name");
+            final int type = cursor.getColumnIndexOrThrow("type");
+            final int notNull = cursor.getColumnIndexOrThrow("notnull");
+            final int pk = cursor.getColumnIndexOrThrow("pk");
+            while (cursor.moveToNext()) {
+                columns.put(cursor.getString(name).toLowerCase(Locale.US), new ColumnInfo(null,
+                        cursor.getString(type), cursor.getInt(pk) > 0, cursor.getInt(notNull) == 1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Migrates the table, which must already exist, to the given schema. Does nothing if it already matches.
+     *
+     * @param allowRebuild Whether changes which can't be made in place may rebuild the table, dropping the
+     *                     columns the schema doesn't have.
+     */
+    public static void reconcile(SQLiteDatabase db, String table, String schema, boolean allowRebuild) {
+        final Map<String, ColumnInfo> wanted = parseSchema(schema);
+        final Map<String, ColumnInfo> existing = readTableInfo(db, table);
+        final List<String> added = new ArrayList<>();
+        String mismatch = null;
+        for (Map.Entry<String, ColumnInfo> column : wanted.entrySet()) {
+            final ColumnInfo info = column.getValue();
+            final ColumnInfo current = existing.get(column.getKey());
+            if (current == null) {
+                // SQLite can't add a key column in place, NOT NULL ones need a default for existing rows
+                if (info.primaryKey)
+                    mismatch = "it has no primary key column " + column.getKey();
+                else if (info.notNull)
+                    added.add(info.definition + " DEFAULT " + getDefault(table, column.getKey(), info));
+                else
+                    added.add(info.definition);
+            } else if (!current.matches(info)) {
+                mismatch = "column " + column.getKey() + " has a different type or constraints";
+            }
+        }
+        if (allowRebuild) {
+            for (String column : existing.keySet()) {
+                if (!wanted.containsKey(column))
+                    mismatch = "the row class has no column " + column;
+            }
+        }
+        final boolean rebuild = mismatch != null && allowRebuild;
+        if (mismatch != null && !allowRebuild) {
+            Log.w(TAG, "Table " + table + " doesn't match its row class, " + mismatch + ". Add a Migration, " +
+                    "or enable DatabaseConfig.Builder.rebuildTables() to rebuild it automatically.");
+        }
+
+        if (rebuild) {
+            // Target columns and the expressions copied into them; rowid carries over an INTEGER PRIMARY KEY
+            final List<String> targets = new ArrayList<>();
+            final List<String> sources = new ArrayList<>();
+            for (Map.Entry<String, ColumnInfo> column : wanted.entrySet()) {
+                final String name = column.getKey();
+                final ColumnInfo info = column.getValue();
+                final ColumnInfo current = existing.get(name);
+                if (current != null) {
+                    targets.add(name);
+                    // A column which became NOT NULL would fail the copy on the first NULL it holds
+                    sources.add(info.notNull && !current.notNull && !info.primaryKey ?
+                            "COALESCE(" + name + ", " + getDefault(table, name, info) + ")" : name);
+                } else if (info.primaryKey) {
+                    if (!"INTEGER".equals(info.type) && hasRows(db, table)) {
+                        throw new IllegalStateException("Can't add primary key column " + name + " to table " +
+                                table + " which already has rows; add a Migration which fills it in.");
+                    }
+                } else if (info.notNull) {
+                    targets.add(name);
+                    sources.add(getDefault(table, name, info));
+                }
+            }
+            Log.d(TAG, "Rebuilding table " + table + " to match its row class.");
+            rebuild(db, table, schema, targets, sources);
+        } else if (!added.isEmpty()) {
+            db.beginTransaction();
+            try {
+                for (String column : added)
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * The value rows get in a NOT NULL column they have no value for, which is the type's zero value.
+     */
+    private static String getDefault(String table, String column, ColumnInfo info) {
+        switch (info.type) {
+            case "INTEGER":
+            case "REAL":
+                return "0";
+            case "TEXT":
+                return "''";
+            case "BLOB":
+                return "X''";
+            default:
+                throw new IllegalStateException("Column " + column + " of table " + table + " is NOT NULL, " +
+                        "but there's no default for type " + info.type + "; add a Migration which fills it in.");
+        }
+    }
+
+    private static boolean hasRows(SQLiteDatabase db, String table) {
+        final SQLiteStatement statement = db.compileStatement("SELECT EXISTS (SELECT 1 FROM " + table + ")");
+        try {
+            return statement.simpleQueryForLong() != 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void rebuild(SQLiteDatabase db, String table, String schema, List<String> targets,
+                                List<String> sources) {
+        final String rebuilt = table + REBUILD_SUFFIX;
+        // A rebuild interrupted by the app being killed leaves a partial copy behind, which is started over
+        db.execSQL("DROP TABLE IF EXISTS " + rebuilt);
+        db.execSQL(String.format("CREATE TABLE %s (%s);", rebuilt, schema));
+
+        final StringBuilder columns = new StringBuilder("rowid");
+        final StringBuilder values = new StringBuilder("rowid");
+        for (int i = 0; i < targets.size(); i++) {
+            columns.append(", ").append(targets.get(i));
+            values.append(", ").append(sources.get(i));
+        }
+        final SQLiteStatement copy = db.compileStatement("INSERT INTO " + rebuilt + " (" + columns + ") SELECT " +
+                values + " FROM " + table + " WHERE rowid > ? ORDER BY rowid LIMIT " + REBUILD_CHUNK_SIZE);
+        final SQLiteStatement lastCopied = db.compileStatement("SELECT MAX(rowid) FROM " + rebuilt);
+        try {
+            long after = Long.MIN_VALUE;
+            while (true) {
+                final int copied;
+                db.beginTransaction();
+                try {
+                    copy.bindLong(1, after);
+                    copied = copy.executeUpdateDelete();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (copied < REBUILD_CHUNK_SIZE) break;
+                after = lastCopied.simpleQueryForLong();
+            }
+        } finally {
+            copy.close();
+            lastCopied.close();
+        }
+
+        db.beginTransaction();
+        try {
+            db.execSQL("DROP TABLE " + table);
+            db.execSQL("ALTER TABLE " + rebuilt + " RENAME TO " + table);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.afollestad.inquiry;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * Logs a warning with the phase breakdown of every query that takes longer than a threshold.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class SlowQueryLogger implements QueryListener {
+
+    private static final String TAG = "Inquiry";
+
+    private final long mThresholdNanos;
+
+    public SlowQueryLogger(long thresholdMillis) {
+        mThresholdNanos = thresholdMillis * 1000000L;
+    }
+
+    @Override
+    public void onQuery(@NonNull QueryMetrics metrics) {
+        if (metrics.getTotalNanos() >= mThresholdNanos)
+            Log.w(TAG, "Slow query on " + metrics.getTable() + ": " + metrics);
+    }
+}
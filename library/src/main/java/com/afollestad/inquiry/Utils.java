@@ -1,5 +1,6 @@
 package com.afollestad.inquiry;
 
+import android.database.Cursor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -45,4 +46,23 @@ class Utils {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads a column with the type SQLite stored it as, so binding the value again matches it exactly.
+     */
+    @Nullable
+    public static Object getValue(@NonNull Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.afollestad.inquiry.annotations;
+
+import android.graphics.Bitmap;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Configures how a Bitmap {@link Column} is stored and loaded. Without it, Bitmaps are stored in their row
+ * as lossless PNGs and decoded at full size.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface BitmapColumn {
+
+    /**
+     * The format images are compressed to. JPEG and WEBP are lossy but much smaller than PNG for photos.
+     */
+    Bitmap.CompressFormat format() default Bitmap.CompressFormat.PNG;
+
+    /**
+     * Compression quality from 0 to 100, ignored by PNG.
+     */
+    int quality() default 100;
+
+    /**
+     * Compressed images larger than this many bytes are stored in a file, and the row only holds a reference to it.
+     * Files are read through memory-mapped I/O. Zero or less always stores the image in the row.
+     */
+    int fileThreshold() default 0;
+
+    /**
+     * The width images are loaded at, at least. Images are subsampled by powers of 2 while they stay at least
+     * this size; zero or less loads them at full width.
+     */
+    int targetWidth() default 0;
+
+    /**
+     * The height images are loaded at, at least. See {@link #targetWidth()}.
+     */
+    int targetHeight() default 0;
+}
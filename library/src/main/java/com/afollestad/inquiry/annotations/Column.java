@@ -1,5 +1,8 @@
 package com.afollestad.inquiry.annotations;
 
+import com.afollestad.inquiry.codecs.ColumnCodec;
+import com.afollestad.inquiry.codecs.SerializableCodec;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -18,4 +21,28 @@ public @interface Column {
     boolean autoIncrement() default false;
 
     boolean notNull() default false;
+
+    /**
+     * Creates an index on this column when the table is created, so where() clauses and sorting on it don't
+     * scan the whole table. Use {@link Index} on the class for indexes spanning several columns.
+     */
+    boolean index() default false;
+
+    /**
+     * Creates a unique index on this column, which both speeds up lookups and rejects duplicate values.
+     */
+    boolean unique() default false;
+
+    /**
+     * Leaves this column out of selects that don't set a projection, so list queries don't read and decode
+     * large values they never show. Only BLOB columns (byte arrays, Bitmaps and other objects) can be lazy.
+     * Load the value for a row with {@link com.afollestad.inquiry.Query#load(Object, String...)}.
+     */
+    boolean lazy() default false;
+
+    /**
+     * How the field's value is stored, if it's an object which is stored as a BLOB (anything besides primitives,
+     * Strings, byte arrays, and Bitmaps). Defaults to Java serialization.
+     */
+    Class<? extends ColumnCodec> codec() default SerializableCodec.class;
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package com.afollestad.inquiry.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an index on one or more columns of a row class, created along with its table. Column order matters:
+ * an index on (lastName, firstName) also serves lookups on lastName alone, but not on firstName alone.
+ * Use {@link Indices} to declare more than one.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Index {
+
+    /**
+     * The indexed columns, in order.
+     */
+    String[] columns();
+
+    boolean unique() default false;
+
+    /**
+     * The index's name. Defaults to one derived from the table and column names.
+     */
+    String name() default "";
+}
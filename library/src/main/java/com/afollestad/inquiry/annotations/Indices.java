@@ -0,0 +1,18 @@
+package com.afollestad.inquiry.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares several {@link Index}es on a row class.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Indices {
+
+    Index[] value();
+}
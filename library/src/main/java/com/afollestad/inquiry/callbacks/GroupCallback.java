@@ -0,0 +1,13 @@
+package com.afollestad.inquiry.callbacks;
+
+import android.support.annotation.NonNull;
+
+import com.afollestad.inquiry.QueryGroup;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public interface GroupCallback {
+
+    void result(@NonNull QueryGroup.Results results);
+}
@@ -0,0 +1,11 @@
+package com.afollestad.inquiry.callbacks;
+
+import android.support.annotation.NonNull;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public interface RowConsumer<RowType> {
+
+    void accept(@NonNull RowType row);
+}
@@ -0,0 +1,23 @@
+package com.afollestad.inquiry.codecs;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Converts the values of object fields (anything which isn't a primitive, String, byte[], or Bitmap)
+ * to and from the bytes stored in their BLOB column. A field picks its codec with
+ * {@link com.afollestad.inquiry.annotations.Column#codec()}; implementations need a public default constructor,
+ * and a single instance is shared by every field which uses it.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface ColumnCodec {
+
+    @NonNull
+    byte[] encode(@NonNull Object value);
+
+    /**
+     * @param fieldType The declared type of the field the value is being loaded into.
+     */
+    @NonNull
+    Object decode(@NonNull byte[] data, @NonNull Class<?> fieldType);
+}
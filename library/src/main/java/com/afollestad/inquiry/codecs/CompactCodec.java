@@ -0,0 +1,320 @@
+package com.afollestad.inquiry.codecs;
+
+import android.support.annotation.NonNull;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A compact, schema-less binary codec for common value types: boxed primitives, Strings, byte arrays, enums,
+ * Dates, UUIDs, and Lists, Sets and Maps of those (including nested collections). Each value is a one byte
+ * type tag followed by its data, with integers and lengths stored as variable-length numbers. Unlike
+ * {@link SerializableCodec}, no class descriptors are written (except an enum's class name).
+ * <p/>
+ * Lists decode to ArrayLists, Sets to LinkedHashSets, and Maps to LinkedHashMaps, unless the field is declared
+ * as a concrete collection type with a default constructor, in which case that type is created.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class CompactCodec implements ColumnCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_BYTE = 3;
+    private static final int TAG_SHORT = 4;
+    private static final int TAG_INT = 5;
+    private static final int TAG_LONG = 6;
+    private static final int TAG_FLOAT = 7;
+    private static final int TAG_DOUBLE = 8;
+    private static final int TAG_CHAR = 9;
+    private static final int TAG_STRING = 10;
+    private static final int TAG_BYTES = 11;
+    private static final int TAG_ENUM = 12;
+    private static final int TAG_DATE = 13;
+    private static final int TAG_UUID = 14;
+    private static final int TAG_LIST = 15;
+    private static final int TAG_SET = 16;
+    private static final int TAG_MAP = 17;
+
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull Object value) {
+        final Writer writer = new Writer();
+        writer.writeValue(value);
+        return writer.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    @Override
+    public Object decode(@NonNull byte[] data, @NonNull Class<?> fieldType) {
+        // Fields declared with JDK types (List, Map, ...) report the boot class loader, which can't see app enums
+        final ClassLoader loader = fieldType.getClassLoader() != null ?
+                fieldType.getClassLoader() : CompactCodec.class.getClassLoader();
+        final Object value = new Reader(data, loader).readValue();
+        if (value == null || fieldType.isInstance(value))
+            return value;
+        // Copy into the field's own collection type, e.g. a TreeMap, when it can be constructed
+        try {
+            if (value instanceof Collection) {
+                final Collection<Object> target = (Collection<Object>) fieldType.newInstance();
+                target.addAll((Collection<Object>) value);
+                return target;
+            } else if (value instanceof Map) {
+                final Map<Object, Object> target = (Map<Object, Object>) fieldType.newInstance();
+                target.putAll((Map<Object, Object>) value);
+                return target;
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to create an instance of " + fieldType.getName(), e);
+        }
+        throw new IllegalStateException("Decoded a " + value.getClass().getName() + " which can't be assigned to " + fieldType.getName());
+    }
+
+    private static final class Writer {
+
+        private byte[] mBuffer = new byte[64];
+        private int mSize;
+
+        private void ensure(int bytes) {
+            if (mSize + bytes > mBuffer.length)
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mSize + bytes));
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            mBuffer[mSize++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                mBuffer[mSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mSize++] = (byte) value;
+        }
+
+        void writeSignedVarLong(long value) {
+            // Zig-zag encoding keeps small negative numbers small
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeFixedLong(long value) {
+            ensure(8);
+            for (int i = 7; i >= 0; i--)
+                mBuffer[mSize++] = (byte) (value >>> (i * 8));
+        }
+
+        void writeString(String value) {
+            writeBytes(value.getBytes(UTF_8));
+        }
+
+        void writeValue(Object value) {
+            if (value == null) {
+                writeByte(TAG_NULL);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Byte) {
+                writeByte(TAG_BYTE);
+                writeByte((Byte) value);
+            } else if (value instanceof Short) {
+                writeByte(TAG_SHORT);
+                writeSignedVarLong((Short) value);
+            } else if (value instanceof Integer) {
+                writeByte(TAG_INT);
+                writeSignedVarLong((Integer) value);
+            } else if (value instanceof Long) {
+                writeByte(TAG_LONG);
+                writeSignedVarLong((Long) value);
+            } else if (value instanceof Float) {
+                writeByte(TAG_FLOAT);
+                writeVarLong(Float.floatToIntBits((Float) value) & 0xFFFFFFFFL);
+            } else if (value instanceof Double) {
+                writeByte(TAG_DOUBLE);
+                writeFixedLong(Double.doubleToLongBits((Double) value));
+            } else if (value instanceof Character) {
+                writeByte(TAG_CHAR);
+                writeVarLong((Character) value);
+            } else if (value instanceof String) {
+                writeByte(TAG_STRING);
+                writeString((String) value);
+            } else if (value instanceof byte[]) {
+                writeByte(TAG_BYTES);
+                writeBytes((byte[]) value);
+            } else if (value instanceof Enum) {
+                writeByte(TAG_ENUM);
+                writeString(((Enum<?>) value).getDeclaringClass().getName());
+                writeString(((Enum<?>) value).name());
+            } else if (value instanceof Date) {
+                writeByte(TAG_DATE);
+                writeSignedVarLong(((Date) value).getTime());
+            } else if (value instanceof UUID) {
+                writeByte(TAG_UUID);
+                writeFixedLong(((UUID) value).getMostSignificantBits());
+                writeFixedLong(((UUID) value).getLeastSignificantBits());
+            } else if (value instanceof Collection) {
+                final Collection<?> collection = (Collection<?>) value;
+                writeByte(value instanceof Set ? TAG_SET : TAG_LIST);
+                writeVarLong(collection.size());
+                for (Object item : collection)
+                    writeValue(item);
+            } else if (value instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>) value;
+                writeByte(TAG_MAP);
+                writeVarLong(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            } else {
+                throw new IllegalStateException("CompactCodec can't encode values of type " + value.getClass().getName());
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBuffer, mSize);
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] mData;
+        private final ClassLoader mClassLoader;
+        private int mPosition;
+
+        Reader(byte[] data, ClassLoader classLoader) {
+            mData = data;
+            mClassLoader = classLoader;
+        }
+
+        int readByte() {
+            if (mPosition >= mData.length)
+                throw new IllegalStateException("Unexpected end of CompactCodec data.");
+            return mData[mPosition++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        long readSignedVarLong() {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readFixedLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (readByte() & 0xFF);
+            return value;
+        }
+
+        byte[] readBytes() {
+            final int length = (int) readVarLong();
+            if (length < 0 || mPosition + length > mData.length)
+                throw new IllegalStateException("Unexpected end of CompactCodec data.");
+            final byte[] bytes = Arrays.copyOfRange(mData, mPosition, mPosition + length);
+            mPosition += length;
+            return bytes;
+        }
+
+        String readString() {
+            final int length = (int) readVarLong();
+            if (length < 0 || mPosition + length > mData.length)
+                throw new IllegalStateException("Unexpected end of CompactCodec data.");
+            final String value = new String(mData, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        Object readValue() {
+            final int tag = readByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_FALSE:
+                    return false;
+                case TAG_TRUE:
+                    return true;
+                case TAG_BYTE:
+                    return (byte) readByte();
+                case TAG_SHORT:
+                    return (short) readSignedVarLong();
+                case TAG_INT:
+                    return (int) readSignedVarLong();
+                case TAG_LONG:
+                    return readSignedVarLong();
+                case TAG_FLOAT:
+                    return Float.intBitsToFloat((int) readVarLong());
+                case TAG_DOUBLE:
+                    return Double.longBitsToDouble(readFixedLong());
+                case TAG_CHAR:
+                    return (char) readVarLong();
+                case TAG_STRING:
+                    return readString();
+                case TAG_BYTES:
+                    return readBytes();
+                case TAG_ENUM: {
+                    final String className = readString();
+                    final String name = readString();
+                    try {
+                        final Class enumClass = Class.forName(className, false, mClassLoader);
+                        return Enum.valueOf(enumClass, name);
+                    } catch (ClassNotFoundException e) {
+                        throw new IllegalStateException("Enum class " + className + " no longer exists.", e);
+                    }
+                }
+                case TAG_DATE:
+                    return new Date(readSignedVarLong());
+                case TAG_UUID:
+                    return new UUID(readFixedLong(), readFixedLong());
+                case TAG_LIST:
+                case TAG_SET: {
+                    final int size = (int) readVarLong();
+                    final Collection<Object> collection = tag == TAG_SET ?
+                            new LinkedHashSet<>(size * 2) : new ArrayList<>(size);
+                    for (int i = 0; i < size; i++)
+                        collection.add(readValue());
+                    return collection;
+                }
+                case TAG_MAP: {
+                    final int size = (int) readVarLong();
+                    final Map<Object, Object> map = new LinkedHashMap<>(size * 2);
+                    for (int i = 0; i < size; i++)
+                        map.put(readValue(), readValue());
+                    return map;
+                }
+                default:
+                    throw new IllegalStateException("Unknown CompactCodec type tag: " + tag);
+            }
+        }
+    }
+}
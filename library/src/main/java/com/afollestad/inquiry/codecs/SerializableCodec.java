@@ -0,0 +1,70 @@
+package com.afollestad.inquiry.codecs;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * The default codec, which stores values using Java serialization. Values must implement {@link Serializable}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class SerializableCodec implements ColumnCodec {
+
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull Object value) {
+        if (!(value instanceof Serializable))
+            throw new IllegalStateException("Class " + value.getClass().getName() + " should be marked as Serializable in order to be inserted.");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutput out = null;
+        try {
+            out = new ObjectOutputStream(bos);
+            out.writeObject(value);
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize object of type " + value.getClass().getName(), e);
+        } finally {
+            try {
+                if (out != null)
+                    out.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                bos.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public Object decode(@NonNull byte[] data, @NonNull Class<?> fieldType) {
+        ByteArrayInputStream bis = new ByteArrayInputStream(data);
+        ObjectInput in = null;
+        try {
+            in = new ObjectInputStream(bis);
+            return in.readObject();
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to deserialize data to type " + fieldType.getName(), e);
+        } finally {
+            try {
+                bis.close();
+            } catch (IOException ignored) {
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}